@@ -0,0 +1,57 @@
+import com.typesafe.config.Config;
+import jooq.DatabaseOverloadedException;
+import models.aggregates.user.DuplicateEmailsException;
+import models.aggregates.user.StaleUserException;
+import play.Environment;
+import play.api.OptionalSourceMapper;
+import play.api.routing.Router;
+import play.http.DefaultHttpErrorHandler;
+import play.libs.Json;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+import validation.ErrorMessage;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Picked up by Play by its name. Renders a {@link DatabaseOverloadedException} (possibly wrapped, e.g. in a
+ * {@link java.util.concurrent.CompletionException}) as 503 Service Unavailable with a Retry-After header, a
+ * {@link StaleUserException} or a {@link DuplicateEmailsException} as 409 Conflict (the latter with the same body
+ * as in {@code POST /persons/batch}), and everything else as Play does by default.
+ */
+@Singleton
+public class ErrorHandler extends DefaultHttpErrorHandler {
+
+    @Inject
+    public ErrorHandler(Config config, Environment environment, OptionalSourceMapper sourceMapper,
+                        Provider<Router> routes) {
+        super(config, environment, sourceMapper, routes);
+    }
+
+    @Override
+    public CompletionStage<Result> onServerError(Http.RequestHeader request, Throwable exception) {
+        for (var t = exception; t != null; t = t.getCause()) {
+            if (t instanceof DatabaseOverloadedException) {
+                var retryAfter = Math.max(1, ((DatabaseOverloadedException) t).getRetryAfter().toSeconds());
+                return CompletableFuture.completedFuture(Results.status(Http.Status.SERVICE_UNAVAILABLE)
+                        .withHeader(Http.HeaderNames.RETRY_AFTER, Long.toString(retryAfter)));
+            }
+            if (t instanceof StaleUserException)
+                return CompletableFuture.completedFuture(Results.status(Http.Status.CONFLICT));
+            if (t instanceof DuplicateEmailsException) {
+                var body = Json.newObject();
+                body.putObject("errors").putArray("emails").add(ErrorMessage.DUPLICATE);
+                var duplicates = body.putArray("duplicates");
+                ((DuplicateEmailsException) t).getEmails().forEach(duplicates::add);
+                return CompletableFuture.completedFuture(Results.status(Http.Status.CONFLICT, body));
+            }
+        }
+        return super.onServerError(request, exception);
+    }
+
+}
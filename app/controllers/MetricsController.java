@@ -0,0 +1,22 @@
+package controllers;
+
+import io.prometheus.client.exporter.common.TextFormat;
+import metrics.Metrics;
+import play.mvc.Controller;
+import play.mvc.Result;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Exposes {@link Metrics#REGISTRY} in the Prometheus text format.
+ */
+public class MetricsController extends Controller {
+
+    public Result metrics() throws IOException {
+        var writer = new StringWriter();
+        TextFormat.write004(writer, Metrics.REGISTRY.metricFamilySamples());
+        return ok(writer.toString()).as(TextFormat.CONTENT_TYPE_004);
+    }
+
+}
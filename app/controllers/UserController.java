@@ -1,13 +1,23 @@
 package controllers;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import akka.NotUsed;
+import akka.stream.javadsl.Compression;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.typesafe.config.Config;
+import daos.AccountDao;
 import daos.UserDao;
 import jooq.Database;
+import models.aggregates.user.DuplicateEmailsException;
+import models.aggregates.user.EmailFilter;
 import models.aggregates.user.UserService;
+import models.jooq.generated.tables.json.AccountJsonWriter;
+import models.jooq.generated.tables.json.UserJsonWriter;
 import models.jooq.generated.tables.pojos.AccountPojo;
 import models.jooq.generated.tables.pojos.UserPojo;
+import org.jooq.DSLContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import play.data.Form;
@@ -17,6 +27,7 @@ import play.data.validation.Constraints.Required;
 import play.data.validation.Constraints.Validatable;
 import play.data.validation.Constraints.Validate;
 import play.data.validation.ValidationError;
+import play.i18n.MessagesApi;
 import play.libs.Json;
 import play.mvc.Controller;
 import play.mvc.Http;
@@ -25,97 +36,509 @@ import scala.Tuple2;
 import scala.util.Either;
 import scala.util.Left;
 import scala.util.Right;
+import validation.Constraints.DatabasePhase;
 import validation.Constraints.Phase2;
 import validation.Constraints.TwoPhaseValidation;
 import validation.ErrorMessage;
+import validation.ValidatableWithDSLContext;
+import validation.ValidateWithDSLContext;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
 import static play.libs.Json.toJson;
 
 public class UserController extends Controller {
 
     private static final Logger logger = LoggerFactory.getLogger(UserController.class);
 
+    /**
+     * Rows fetched per round trip when streaming. Small enough to keep the heap flat, large enough
+     * to amortize the round trips.
+     */
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    /**
+     * How long the writer may block on a slow client before the stream is aborted.
+     */
+    private static final Duration STREAM_WRITE_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * Bytes of CSV gathered before they are handed to the response, since COPY writes one row at a time.
+     */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private static final int MAX_BATCH_SIZE = 1000;
+
     private final Database database;
     private final UserService userService;
     private final UserDao userDao;
     private final Form<Data> createForm;
+    private final Form<Data> emailsForm;
+    private final EmailFilter emailFilter;
+    private final MessagesApi messagesApi;
+
+    /**
+     * If true, the read endpoints send the JSON built by PostgreSQL as is (see {@link UserDao#findAllWithAccountsAsJson()}),
+     * instead of mapping the rows to POJOs and writing them out. Single-user reads then skip the user cache too.
+     */
+    private final boolean jsonFromDatabase;
 
     @Inject
-    private UserController(Database database, UserService userService, UserDao userDao, FormFactory formFactory) {
+    private UserController(Database database, UserService userService, UserDao userDao, FormFactory formFactory,
+                           MessagesApi messagesApi, EmailFilter emailFilter, Config config) {
         this.database = database;
         this.userService = userService;
         this.userDao = userDao;
         this.createForm = formFactory.form(Data.class, TwoPhaseValidation.class);
+        this.emailsForm = formFactory.form(Data.class, DatabasePhase.class);
+        this.emailFilter = emailFilter;
+        this.messagesApi = messagesApi;
+        this.jsonFromDatabase = config.getBoolean("users.json.from-database");
     }
 
     /**
      * If we are just displaying for UI, I find it convenient to just deal with records directly,
      * treating them as just data.
+     *
+     * <p>If {@code after} or {@code limit} is given, a single page is returned together with the cursor of
+     * the next page (null on the last page), i.e. {@code {"users": [...], "next": "..."}}.
+     *
+     * @param stream if true, the users are read through a server-side cursor and written out as a
+     *               chunked response while the rows arrive, instead of being loaded all at once.
+     * @param after nullable, opaque cursor returned as "next" by the previous page
+     * @param limit nullable, page size. Defaults to {@value #DEFAULT_PAGE_SIZE} when paging.
      */
-    public Result list() {
-        var userToAccounts = database.transaction(ctx -> {
+    public CompletionStage<Result> list(boolean stream, String after, Integer limit) {
+        if (after != null || limit != null) {
+            if (stream)
+                return completedFuture(badRequest(toJson("Streaming cannot be combined with pagination")));
+            return listPage(after, limit == null ? DEFAULT_PAGE_SIZE : limit);
+        }
+        if (stream)
+            return completedFuture(ok().chunked(streamUsersWithAccounts()).as(Http.MimeTypes.JSON));
+        if (jsonFromDatabase) {
+            return database.transactionReadOnlyAsync(ctx -> {
+                return userDao.findAllWithAccountsAsJson();
+            }).thenApply(json -> ok(json).as(Http.MimeTypes.JSON));
+        }
+        return database.transactionReadOnlyAsync(ctx -> {
             return userDao.findAllWithAccounts();
+        }).thenApply(userToAccounts -> ok(toJsonBytes(generator -> {
+            writeUsersWithAccounts(generator, userToAccounts);
+        })).as(Http.MimeTypes.JSON));
+    }
+
+    private CompletionStage<Result> listPage(String after, int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE)
+            return completedFuture(badRequest(toJson("limit must be between 1 and " + MAX_PAGE_SIZE)));
+        UUID afterId = null;
+        if (after != null) {
+            var uuidEither = cursorToUuid(after);
+            if (uuidEither.isLeft())
+                return completedFuture(uuidEither.left().get());
+            afterId = uuidEither.right().get();
+        }
+        final var seek = afterId;
+        if (jsonFromDatabase) {
+            return database.transactionReadOnlyAsync(ctx -> {
+                return userDao.findPageWithAccountsAsJson(seek, limit);
+            }).thenApply(page -> {
+                String next = null;
+                if (page.size() == limit) {
+                    for (var userId : page.keySet())
+                        next = uuidToCursor(userId);
+                }
+                var out = new ByteArrayOutputStream();
+                out.writeBytes("{\"users\":".getBytes(UTF_8));
+                writeJsonArray(out, page.values());
+                // the cursor is base64url, nothing to escape
+                out.writeBytes((",\"next\":" + (next == null ? "null" : '"' + next + '"') + "}").getBytes(UTF_8));
+                return ok(out.toByteArray()).as(Http.MimeTypes.JSON);
+            });
+        }
+        return database.transactionReadOnlyAsync(ctx -> {
+            return userDao.findPageWithAccounts(seek, limit);
+        }).thenApply(userToAccounts -> ok(toJsonBytes(generator -> {
+            generator.writeStartObject();
+            generator.writeFieldName("users");
+            writeUsersWithAccounts(generator, userToAccounts);
+            if (userToAccounts.size() == limit)
+                generator.writeStringField("next", uuidToCursor(userToAccounts.lastKey().getId()));
+            else
+                generator.writeNullField("next");
+            generator.writeEndObject();
+        })).as(Http.MimeTypes.JSON));
+    }
+
+    private Source<ByteString, NotUsed> streamUsersWithAccounts() {
+        return streamFromTransaction("stream users", this::writeUsersWithAccounts);
+    }
+
+    /**
+     * What the block writes to the {@link OutputStream} materialized by {@link StreamConverters#asOutputStream},
+     * which blocks the writer whenever the client does not keep up. The transaction (and therefore the cursor)
+     * is held on the database executor until the last byte has been written.
+     *
+     * <p>Closing the OutputStream completes the stream, even when the block fails. So the stream only completes
+     * once the transaction has committed, and fails if it did not: Play then aborts the chunked response instead
+     * of ending it normally, and the client can tell that it is incomplete.
+     *
+     * @param what for the log, should the transaction fail
+     */
+    private Source<ByteString, NotUsed> streamFromTransaction(String what, Consumer<OutputStream> block) {
+        var committed = new CompletableFuture<Source<ByteString, NotUsed>>();
+        return StreamConverters.asOutputStream(STREAM_WRITE_TIMEOUT)
+                .mapMaterializedValue(out -> {
+                    database.transactionReadOnlyAsync(ctx -> {
+                        block.accept(out);
+                    }).whenComplete((v, e) -> {
+                        // in case the block did not run (e.g. the bulkhead is full) or left it open
+                        try {
+                            out.close();
+                        } catch (IOException closeException) {
+                            logger.debug("Could not close the stream", closeException);
+                        }
+                        if (e == null) {
+                            committed.complete(Source.empty());
+                            return;
+                        }
+                        logger.error("Could not " + what, e);
+                        committed.completeExceptionally(e);
+                    });
+                    return NotUsed.getInstance();
+                })
+                .concat(Source.completionStageSource(committed));
+    }
+
+    /**
+     * All the users with their accounts as CSV, one row per account (see {@link UserDao#copyAllWithAccountsAsCsv}),
+     * streamed like {@link #list} with {@code stream=true}: if the COPY fails partway, the response is aborted
+     * rather than ended like a complete CSV. Compressed with gzip if the client accepts it.
+     */
+    public Result export(Http.Request req) {
+        var csv = streamFromTransaction("export users", out -> {
+            try (var buffered = new BufferedOutputStream(out, COPY_BUFFER_SIZE)) {
+                userDao.copyAllWithAccountsAsCsv(buffered);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         });
-        var json = userToAccounts
-                .entrySet()
-                .stream()
-                .map(userToAcc -> userWithAccountsToJson(userToAcc.getKey(), userToAcc.getValue()))
-                .collect(Json::newArray, ArrayNode::add, ArrayNode::addAll);
-        return ok(json);
+        var gzip = req.header(Http.HeaderNames.ACCEPT_ENCODING)
+                .map(acceptEncoding -> acceptEncoding.contains("gzip"))
+                .orElse(false);
+        var result = gzip
+                ? ok().chunked(csv.via(Compression.gzip())).withHeader(Http.HeaderNames.CONTENT_ENCODING, "gzip")
+                : ok().chunked(csv);
+        return result.as("text/csv; charset=utf-8")
+                .withHeader(Http.HeaderNames.CONTENT_DISPOSITION, "attachment; filename=\"users.csv\"")
+                .withHeader(Http.HeaderNames.VARY, Http.HeaderNames.ACCEPT_ENCODING);
+    }
+
+    private void writeUsersWithAccounts(OutputStream out) {
+        if (jsonFromDatabase) {
+            writeUsersWithAccountsFromDatabase(out);
+            return;
+        }
+        try (var generator = Json.mapper().getFactory().createGenerator(out)) {
+            // if the transaction fails halfway, the client must see malformed JSON rather than a shorter array
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            generator.writeStartArray();
+            userDao.forEachUserWithAccounts(STREAM_FETCH_SIZE, (userPojo, accountPojos) -> {
+                try {
+                    writeUserWithAccounts(generator, userPojo, accountPojos);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeUsersWithAccountsFromDatabase(OutputStream out) {
+        // buffered like the JsonGenerator above, so that the chunks are not one per user
+        try (var buffered = new BufferedOutputStream(out)) {
+            var separator = new byte[] { '[' };
+            userDao.forEachUserWithAccountsAsJson(STREAM_FETCH_SIZE, json -> {
+                try {
+                    buffered.write(separator);
+                    buffered.write(json);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                separator[0] = ',';
+            });
+            // likewise, a failure halfway leaves the array unterminated
+            if (separator[0] == '[')
+                buffered.write('[');
+            buffered.write(']');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public CompletionStage<Result> get(String id) {
+        var uuidEither = stringToUuid(id);
+        if (uuidEither.isLeft())
+            return completedFuture(uuidEither.left().get());
+        UUID uuid = uuidEither.right().get();
+        if (jsonFromDatabase) {
+            return database.transactionReadOnlyAsync(ctx -> {
+                return userDao.findByIdWithAccountsAsJson(uuid);
+            }).thenApply(json -> json == null ? notFound() : ok(json).as(Http.MimeTypes.JSON));
+        }
+        return userService.getUser(uuid)
+                .thenApply(userWithAccounts -> userWithAccounts == null
+                        ? notFound()
+                        : ok(userWithAccountsToJson(userWithAccounts)).as(Http.MimeTypes.JSON));
     }
 
-    public Result create(Http.Request req) {
+    /**
+     * Unless the {@link EmailFilter} rules out that the emails are taken, they are checked in a read-only
+     * transaction first (see {@link Data#validate(Provider)}), so that a duplicate is answered with 409 without
+     * opening a write transaction. Either way, the 409 is that of a {@link DuplicateEmailsException}. With the filter
+     * disabled, there is no such check.
+     */
+    public CompletionStage<Result> create(Http.Request req) {
         var form = createForm.bindFromRequest(req);
         if (form.hasErrors())
-            return badRequest(form.errorsAsJson());
+            return completedFuture(badRequest(form.errorsAsJson()));
         var data = form.get();
-        var userWithAccounts = userService.createNewUser(data.name, data.emails);
-        var json = userWithAccountsToJson(userWithAccounts);
-        return created(json);
+        if ( !emailFilter.isEnabled() || !emailFilter.mightContainAny(data.emails) )
+            return createUser(data);
+        return database.transactionReadOnlyAsync(ctx -> {
+            return emailsForm.bindFromRequest(req);
+        }).thenCompose(checked -> {
+            if (checked.hasErrors())
+                return failedFuture(new DuplicateEmailsException(takenEmails(checked)));
+            return createUser(data);
+        });
+    }
+
+    /**
+     * @return the emails found taken by {@link Data#validate(Provider)}
+     */
+    private static Set<String> takenEmails(Form<Data> checked) {
+        var taken = new HashSet<String>();
+        for (var error : checked.errors("emails")) {
+            for (var argument : error.arguments())
+                taken.add((String) argument);
+        }
+        return taken;
+    }
+
+    private CompletionStage<Result> createUser(Data data) {
+        return userService.createNewUser(data.name, data.emails)
+                .thenApply(userWithAccounts -> created(userWithAccountsToJson(userWithAccounts)).as(Http.MimeTypes.JSON));
+    }
+
+    /**
+     * Creates many users at once from a JSON array of {@code {"name": ..., "emails": [...]}}, each validated like
+     * in {@link #create}. The response has one element per user, in the same order, with its status:
+     * 201 and the user, 400 and the validation errors, or 409 and the emails which are already taken.
+     * A failed user does not prevent the others from being created.
+     */
+    public CompletionStage<Result> createBatch(Http.Request req) {
+        var json = req.body().asJson();
+        if (json == null || !json.isArray())
+            return completedFuture(badRequest(toJson("Expected a JSON array")));
+        if (json.size() > MAX_BATCH_SIZE)
+            return completedFuture(badRequest(toJson("At most " + MAX_BATCH_SIZE + " users can be created at once")));
+        var lang = messagesApi.preferred(req).lang();
+        var results = new JsonBody[json.size()];
+        var users = new ArrayList<Tuple2<String, List<String>>>();
+        var indexes = new ArrayList<Integer>();
+        for (int i = 0; i < json.size(); i++) {
+            var form = createForm.bind(lang, req.attrs(), json.get(i));
+            if (form.hasErrors()) {
+                var errors = form.errorsAsJson();
+                results[i] = generator -> {
+                    generator.writeNumberField("status", BAD_REQUEST);
+                    generator.writeFieldName("errors");
+                    generator.writeTree(errors);
+                };
+            } else {
+                var data = form.get();
+                users.add(new Tuple2<>(data.name, data.emails));
+                indexes.add(i);
+            }
+        }
+        return userService.createNewUsers(users).thenApply(created -> {
+            for (int j = 0; j < created.size(); j++) {
+                var result = created.get(j);
+                int i = indexes.get(j);
+                if (result.isRight()) {
+                    var userWithAccounts = result.right().get();
+                    results[i] = generator -> {
+                        generator.writeNumberField("status", CREATED);
+                        generator.writeFieldName("user");
+                        writeUserWithAccounts(generator, userWithAccounts._1(), userWithAccounts._2());
+                    };
+                } else {
+                    var duplicates = result.left().get();
+                    results[i] = generator -> {
+                        generator.writeNumberField("status", CONFLICT);
+                        generator.writeObjectFieldStart("errors");
+                        generator.writeArrayFieldStart("emails");
+                        generator.writeString(ErrorMessage.DUPLICATE);
+                        generator.writeEndArray();
+                        generator.writeEndObject();
+                        generator.writeArrayFieldStart("duplicates");
+                        for (var email : duplicates)
+                            generator.writeString(email);
+                        generator.writeEndArray();
+                    };
+                }
+            }
+            return ok(toJsonBytes(generator -> {
+                generator.writeStartArray();
+                for (var item : results) {
+                    generator.writeStartObject();
+                    item.writeTo(generator);
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            })).as(Http.MimeTypes.JSON);
+        });
     }
 
-    public Result delete(String id) {
+    public CompletionStage<Result> delete(String id) {
         var uuidEither = stringToUuid(id);
         if (uuidEither.isLeft())
-            return uuidEither.left().get();
+            return completedFuture(uuidEither.left().get());
         UUID uuid = uuidEither.right().get();
-        if (userService.deleteUser(uuid))
-            return ok();
-        return notFound();
+        return userService.deleteUser(uuid)
+                .thenApply(deleted -> deleted ? ok() : notFound());
+    }
+
+    /**
+     * Deletes many users at once from a JSON array of ids, e.g. for purge jobs. The response has one element per
+     * distinct id, in the same order, with its status: 200 if the user was deleted or 404 if there was no such user.
+     */
+    public CompletionStage<Result> deleteBatch(Http.Request req) {
+        var json = req.body().asJson();
+        if (json == null || !json.isArray())
+            return completedFuture(badRequest(toJson("Expected a JSON array")));
+        if (json.size() > MAX_BATCH_SIZE)
+            return completedFuture(badRequest(toJson("At most " + MAX_BATCH_SIZE + " users can be deleted at once")));
+        var ids = new LinkedHashSet<UUID>();
+        for (var item : json) {
+            var uuidEither = stringToUuid(item.asText());
+            if (uuidEither.isLeft())
+                return completedFuture(uuidEither.left().get());
+            ids.add(uuidEither.right().get());
+        }
+        return userService.deleteUsers(ids).thenApply(deleted -> ok(toJsonBytes(generator -> {
+            generator.writeStartArray();
+            for (var idToDeleted : deleted.entrySet()) {
+                generator.writeStartObject();
+                generator.writeStringField("id", idToDeleted.getKey().toString());
+                generator.writeNumberField("status", idToDeleted.getValue() ? OK : NOT_FOUND);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        })).as(Http.MimeTypes.JSON));
     }
 
     // some domain actions
 
-    public Result shoutName(String id) {
+    public CompletionStage<Result> shoutName(String id) {
         var uuidEither = stringToUuid(id);
         if (uuidEither.isLeft())
-            return uuidEither.left().get();
+            return completedFuture(uuidEither.left().get());
         UUID uuid = uuidEither.right().get();
-        String name = userService.shoutNameOfUser(uuid);
-        return ok(toJson(name));
+        return userService.shoutNameOfUser(uuid)
+                .thenApply(name -> name == null ? notFound() : ok(toJson(name)));
     }
 
-    public Result changeName(String id, String newName) {
+    public CompletionStage<Result> changeName(String id, String newName) {
         var uuidEither = stringToUuid(id);
         if (uuidEither.isLeft())
-            return uuidEither.left().get();
+            return completedFuture(uuidEither.left().get());
         UUID uuid = uuidEither.right().get();
-        var userWithAccounts = userService.changeName(uuid, newName);
-        var json = userWithAccountsToJson(userWithAccounts);
-        return ok(json);
+        return userService.changeName(uuid, newName)
+                .thenApply(userWithAccounts -> userWithAccounts == null
+                        ? notFound()
+                        : ok(userWithAccountsToJson(userWithAccounts)).as(Http.MimeTypes.JSON));
+    }
+
+    // ----- JSON -----
+    // Written straight to a JsonGenerator by the writers generated along with the POJOs (see JsonWriterGenerator),
+    // rather than built as a tree of JsonNodes by reflection first. Package-private for the benchmarks.
+
+    /**
+     * Writes part of a JSON document.
+     */
+    @FunctionalInterface
+    interface JsonBody {
+        void writeTo(JsonGenerator generator) throws IOException;
+    }
+
+    static byte[] toJsonBytes(JsonBody body) {
+        var out = new ByteArrayOutputStream();
+        try (var generator = Json.mapper().getFactory().createGenerator(out)) {
+            body.writeTo(generator);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes JSON values built elsewhere (by PostgreSQL) as an array, byte for byte.
+     */
+    static void writeJsonArray(ByteArrayOutputStream out, Collection<byte[]> values) {
+        out.write('[');
+        boolean first = true;
+        for (var json : values) {
+            if ( !first )
+                out.write(',');
+            out.writeBytes(json);
+            first = false;
+        }
+        out.write(']');
+    }
+
+    static byte[] userWithAccountsToJson(Tuple2<UserPojo, ? extends Collection<AccountPojo>> userWithAccounts) {
+        return toJsonBytes(generator -> {
+            writeUserWithAccounts(generator, userWithAccounts._1(), userWithAccounts._2());
+        });
     }
 
-    private JsonNode userWithAccountsToJson(Tuple2<UserPojo, ? extends Collection<AccountPojo>> userWithAccounts) {
-        return userWithAccountsToJson(userWithAccounts._1(), userWithAccounts._2());
+    static void writeUsersWithAccounts(JsonGenerator generator, Map<UserPojo, List<AccountPojo>> userToAccounts)
+            throws IOException {
+        generator.writeStartArray();
+        for (var userToAcc : userToAccounts.entrySet())
+            writeUserWithAccounts(generator, userToAcc.getKey(), userToAcc.getValue());
+        generator.writeEndArray();
     }
 
-    private JsonNode userWithAccountsToJson(UserPojo userPojo, Collection<AccountPojo> accountPojos) {
-        var json = (ObjectNode) toJson(userPojo);
-        json.set("accounts", toJson(accountPojos));
-        return json;
+    static void writeUserWithAccounts(JsonGenerator generator, UserPojo userPojo, Collection<AccountPojo> accountPojos)
+            throws IOException {
+        generator.writeStartObject();
+        UserJsonWriter.writeFields(generator, userPojo);
+        generator.writeFieldName("accounts");
+        AccountJsonWriter.writeAll(generator, accountPojos);
+        generator.writeEndObject();
     }
 
     private Either<Result, UUID> stringToUuid(String id) {
@@ -127,8 +550,31 @@ public class UserController extends Controller {
         }
     }
 
+    /**
+     * The cursor is the last user id of a page, base64url-encoded so that clients treat it as opaque.
+     */
+    private static String uuidToCursor(UUID id) {
+        var buffer = ByteBuffer.allocate(16)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    private Either<Result, UUID> cursorToUuid(String cursor) {
+        try {
+            var buffer = ByteBuffer.wrap(Base64.getUrlDecoder().decode(cursor));
+            if (buffer.remaining() != 16)
+                throw new IllegalArgumentException("Cursor must decode to 16 bytes");
+            return new Right<>(new UUID(buffer.getLong(), buffer.getLong()));
+        } catch (IllegalArgumentException e) {
+            logger.info("Invalid cursor {}", cursor, e);
+            return new Left<>(badRequest(toJson("Invalid cursor")));
+        }
+    }
+
     @Validate(groups = Phase2.class)
-    public static final class Data implements Validatable<ValidationError> {
+    @ValidateWithDSLContext(groups = DatabasePhase.class)
+    public static final class Data implements Validatable<ValidationError>, ValidatableWithDSLContext<ValidationError> {
 
         @Required
         public String name;
@@ -145,6 +591,19 @@ public class UserController extends Controller {
             }
             return null;
         }
+
+        /**
+         * Whether any of the emails is taken. Only bound (with {@link DatabasePhase}) when the {@link EmailFilter}
+         * could not rule it out.
+         */
+        @Override
+        public ValidationError validate(Provider<DSLContext> ctxProvider) {
+            var taken = new AccountDao(ctxProvider.get()).findTakenEmails(emails);
+            if (taken.isEmpty())
+                return null;
+            // the taken emails as arguments, see takenEmails(Form)
+            return new ValidationError("emails", ErrorMessage.DUPLICATE, new ArrayList<>(taken));
+        }
     }
 
 }
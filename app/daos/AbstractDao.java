@@ -1,13 +1,27 @@
 package daos;
 
+import org.jooq.Cursor;
 import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.ResultQuery;
+import org.jooq.Table;
 
 import javax.inject.Provider;
+import java.sql.Connection;
 import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public abstract class AbstractDao {
 
-    private final Provider<DSLContext> ctxProvider;
+    /**
+     * Rows fetched per round trip by the streaming methods, unless given: keeps the memory flat while
+     * amortizing the round trips.
+     */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private final DSLContext defaultCtx;
     private DSLContext ctx;
 
     /**
@@ -19,12 +33,16 @@ public abstract class AbstractDao {
      * @param ctx the DSLContext (i.e. Connection} for this DAO to operate on.
      */
     protected AbstractDao(DSLContext ctx) {
-        this.ctxProvider = null;
-        this.ctx = ctx;
+        this.defaultCtx = ctx;
+        this.ctx = null;
     }
 
+    /**
+     * The provided DSLContext is the shared one of {@link jooq.Database#dsl()}, which always runs on the
+     * connection of the innermost transaction, so it is resolved once instead of on every call.
+     */
     protected AbstractDao(Provider<DSLContext> ctxProvider) {
-        this.ctxProvider = ctxProvider;
+        this.defaultCtx = ctxProvider.get();
         this.ctx = null;
     }
 
@@ -47,7 +65,8 @@ public abstract class AbstractDao {
     /**
      * If you have set a temporary DSLContext previously by calling {@link #setTemporaryContext(DSLContext)},
      * you need to call this method to reset the context if you intend to continue to use this instance,
-     * so the context (i.e. connection) can be obtained from ThreadLocal (i.e. from {@link jooq.ConnectionContext}).
+     * so the context (i.e. connection) is the one this DAO was constructed with again (for injected DAOs,
+     * the connection in ThreadLocal, i.e. in {@link jooq.ConnectionContext}).
      */
     public void clearTemporaryContext() {
         this.ctx = null;
@@ -56,7 +75,77 @@ public abstract class AbstractDao {
     protected DSLContext ctx() {
         if (this.ctx != null)
             return this.ctx;
-        return this.ctxProvider.get();
+        return this.defaultCtx;
+    }
+
+    /**
+     * Runs a SELECT declared once as a {@link QueryTemplate}, without building or rendering it again.
+     *
+     * @param values the values of the template's parameters, in their declared order
+     */
+    protected Result<Record> fetch(QueryTemplate template, Object... values) {
+        return template.fetch(ctx(), values);
+    }
+
+    /**
+     * @return the first row of {@link #fetch(QueryTemplate, Object...)} as a record of the table, or null if none
+     */
+    protected <R extends Record> R fetchAny(QueryTemplate template, Table<R> table, Object... values) {
+        var result = template.fetch(ctx(), values);
+        return result.isEmpty() ? null : result.get(0).into(table);
+    }
+
+    /**
+     * Runs any other statement declared once as a {@link QueryTemplate}.
+     *
+     * @param values the values of the template's parameters, in their declared order
+     * @return the number of rows affected
+     */
+    protected int execute(QueryTemplate template, Object... values) {
+        return template.execute(ctx(), values);
+    }
+
+    // ----- Streaming -----
+    // PgJDBC only reads rows through a server-side cursor when autocommit is off (i.e. inside a transaction of
+    // jooq.Database) and a fetch size is set. Otherwise it reads all the rows at once, so these methods refuse to
+    // run outside a transaction. The cursor cannot outlive the transaction: it is closed with its statement, at
+    // the latest when the connection is closed.
+
+    /**
+     * Opens a server-side cursor over the rows of the query, to be closed by the caller (try-with-resources).
+     *
+     * @param fetchSize number of rows fetched from the server per round trip
+     */
+    protected <R extends Record> Cursor<R> cursor(ResultQuery<R> query, int fetchSize) {
+        requireTransaction();
+        return ctx().fetchLazy(query.fetchSize(fetchSize));
+    }
+
+    /**
+     * Hands the rows of the query to the consumer one by one, holding only {@code fetchSize} of them in memory.
+     *
+     * @param fetchSize number of rows fetched from the server per round trip
+     */
+    protected <R extends Record> void forEach(ResultQuery<R> query, int fetchSize, Consumer<? super R> consumer) {
+        try (var cursor = cursor(query, fetchSize)) {
+            for (var record : cursor)
+                consumer.accept(record);
+        }
+    }
+
+    /**
+     * Same as {@link #cursor}, as a lazy {@link Stream}. The stream must be closed (try-with-resources) to
+     * close the cursor, and consumed before the transaction ends.
+     *
+     * @param fetchSize number of rows fetched from the server per round trip
+     */
+    protected <R extends Record> Stream<R> stream(ResultQuery<R> query, int fetchSize) {
+        return cursor(query, fetchSize).stream();
+    }
+
+    private void requireTransaction() {
+        if (ctx().connectionResult(Connection::getAutoCommit))
+            throw new IllegalStateException("Streaming requires a transaction: with autocommit on, all rows would be read at once");
     }
 
 }
@@ -2,16 +2,28 @@ package daos;
 
 import models.jooq.generated.tables.records.AccountRecord;
 import org.jooq.DSLContext;
+import org.jooq.Param;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static models.jooq.generated.Tables.ACCOUNT;
+import static org.jooq.impl.DSL.param;
+import static org.jooq.impl.DSL.selectFrom;
 
 public class AccountDao extends AbstractDao {
 
+    private static final Param<UUID> USER_ID = param("userId", ACCOUNT.USER_ID);
+
+    private static final QueryTemplate FIND_ALL_BY_USER_ID = new QueryTemplate("account.findAllByUserId",
+            selectFrom(ACCOUNT).where(ACCOUNT.USER_ID.eq(USER_ID)), USER_ID);
+
     public AccountDao(DSLContext ctx) {
         super(ctx);
     }
@@ -22,9 +34,38 @@ public class AccountDao extends AbstractDao {
     }
 
     public List<AccountRecord> findAllByUserId(UUID userId) {
+        return fetch(FIND_ALL_BY_USER_ID, userId).into(ACCOUNT);
+    }
+
+    /**
+     * @return those of the emails which belong to an account
+     */
+    public Set<String> findTakenEmails(Collection<String> emails) {
+        if (emails.isEmpty())
+            return Set.of();
         return ctx()
-                .selectFrom(ACCOUNT)
-                .where(ACCOUNT.USER_ID.eq(userId))
-                .fetch();
+                .select(ACCOUNT.EMAIL)
+                .from(ACCOUNT)
+                .where(ACCOUNT.EMAIL.in(emails))
+                .fetchSet(ACCOUNT.EMAIL);
+    }
+
+    /**
+     * Reads all the emails through a server-side cursor (see {@link #forEach}), without holding them in memory.
+     *
+     * @param fetchSize number of rows fetched from the server per round trip
+     */
+    public void forEachEmail(int fetchSize, Consumer<String> consumer) {
+        forEach(ctx().select(ACCOUNT.EMAIL).from(ACCOUNT), fetchSize, record -> consumer.accept(record.value1()));
+    }
+
+    /**
+     * All the accounts, in ascending order of id, read through a server-side cursor (see {@link #stream}), e.g. for
+     * background jobs walking the whole table. Must be called inside a transaction, and the stream closed.
+     *
+     * @param fetchSize number of rows fetched from the server per round trip, e.g. {@link #DEFAULT_FETCH_SIZE}
+     */
+    public Stream<AccountRecord> streamAll(int fetchSize) {
+        return stream(ctx().selectFrom(ACCOUNT).orderBy(ACCOUNT.ID), fetchSize);
     }
 }
@@ -0,0 +1,344 @@
+package daos;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import jooq.Database;
+import metrics.Metrics;
+import org.jooq.Binding;
+import org.jooq.BindingSetStatementContext;
+import org.jooq.Configuration;
+import org.jooq.Converter;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Param;
+import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.Select;
+import org.jooq.conf.Settings;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+
+import java.io.Closeable;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A query which is built once and rendered once, then executed any number of times with only its bind
+ * values changed, e.g.
+ * <pre>
+ * private static final Param&lt;UUID&gt; ID = DSL.param("id", USER.ID);
+ * private static final QueryTemplate FIND_BY_ID = new QueryTemplate("user.findById",
+ *         DSL.selectFrom(USER).where(USER.ID.eq(ID)), ID);
+ * ...
+ * fetch(FIND_BY_ID, id).into(USER)
+ * </pre>
+ *
+ * <p>The SQL is rendered once per {@link Database}, on first use, with the settings of its shared
+ * {@link Database#configuration()} (which those of its transactions are derived from). Each execution prepares
+ * that SQL on the connection of the {@link DSLContext}, binds the values through the {@link Binding}s of the
+ * parameters, and reads the rows with {@link DSLContext#fetch(java.sql.ResultSet, Field[])}, without going through
+ * jOOQ's rendering. On a DSLContext which is not of a Database, the SQL is rendered on every execution.
+ *
+ * <p>These executions bypass jOOQ's {@link org.jooq.ExecuteListener}s, so they are not in
+ * {@code jooq_query_duration_seconds}. Their duration is in {@code jooq_query_template_duration_seconds}
+ * instead, and the renders ({@code miss}) and reuses ({@code hit}) in {@code jooq_query_template_executions_total},
+ * by template. Settings which jOOQ applies to its statements (e.g. {@code queryTimeout}) are not applied.
+ */
+public final class QueryTemplate {
+
+    private static final Counter EXECUTIONS = Counter.build()
+            .name("jooq_query_template_executions_total")
+            .help("Query template executions, by whether the SQL had to be rendered (miss) or was reused (hit)")
+            .labelNames("template", "result")
+            .register(Metrics.REGISTRY);
+
+    private static final Histogram DURATION = Histogram.build()
+            .name("jooq_query_template_duration_seconds")
+            .help("Duration of query template executions, from preparing the statement to the end of fetching")
+            .labelNames("template")
+            .buckets(Metrics.LATENCY_BUCKETS)
+            .register(Metrics.REGISTRY);
+
+    private final String name;
+    private final Query query;
+    private final Param<?>[] params;
+    private final Field<?>[] fields;
+    private final Counter.Child hits;
+    private final Counter.Child misses;
+    private final Histogram.Child duration;
+    private final ConcurrentHashMap<Database, Rendered> rendered = new ConcurrentHashMap<>();
+
+    /**
+     * @param name   identifies the template in the metrics
+     * @param query  the query, not attached to any configuration
+     * @param params the named parameters of the query (each appearing once in it), in the order in which
+     *               their values are passed to {@link #fetch} and {@link #execute}
+     */
+    public QueryTemplate(String name, Query query, Param<?>... params) {
+        this.name = name;
+        this.query = query;
+        this.params = params.clone();
+        this.fields = query instanceof Select ? ((Select<?>) query).fields() : null;
+        this.hits = EXECUTIONS.labels(name, "hit");
+        this.misses = EXECUTIONS.labels(name, "miss");
+        this.duration = DURATION.labels(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the rows, with the fields of the SELECT (so they can be read with e.g. {@code record.get(USER.ID)}
+     * or {@code result.into(USER)} as with the original query)
+     */
+    public Result<Record> fetch(DSLContext ctx, Object... values) {
+        if (fields == null)
+            throw new IllegalStateException("Not a SELECT: " + name);
+        return run(ctx, values, statement -> {
+            try (var resultSet = statement.executeQuery()) {
+                return ctx.fetch(resultSet, fields);
+            }
+        });
+    }
+
+    /**
+     * @return the number of rows affected
+     */
+    public int execute(DSLContext ctx, Object... values) {
+        return run(ctx, values, PreparedStatement::executeUpdate);
+    }
+
+    private <T> T run(DSLContext ctx, Object[] values, StatementCallback<T> callback) {
+        var rendered = rendered(ctx);
+        var configuration = ctx.configuration();
+        var connectionProvider = configuration.connectionProvider();
+        var connection = connectionProvider.acquire();
+        long start = System.nanoTime();
+        var resources = new ArrayList<AutoCloseable>();
+        try (var statement = connection.prepareStatement(rendered.sql)) {
+            rendered.bind(configuration, statement, values, resources);
+            return callback.apply(statement);
+        } catch (SQLException e) {
+            throw new DataAccessException("SQL [" + rendered.sql + "]; " + e.getMessage(), e);
+        } finally {
+            free(resources);
+            connectionProvider.release(connection);
+            duration.observe((System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    private Rendered rendered(DSLContext ctx) {
+        var database = Database.of(ctx.configuration());
+        if (database == null) {
+            misses.inc();
+            return render(ctx);
+        }
+        var rendered = this.rendered.get(database);
+        if (rendered != null) {
+            hits.inc();
+            return rendered;
+        }
+        misses.inc();
+        return this.rendered.computeIfAbsent(database, ignored -> render(database.dsl()));
+    }
+
+    private Rendered render(DSLContext ctx) {
+        var bound = new ArrayList<Param<?>>();
+        for (var param : ctx.extractParams(query).values()) {
+            if ( !param.isInline() )
+                bound.add(param);
+        }
+        if (bound.size() != ctx.extractBindValues(query).size())
+            throw new IllegalStateException("A parameter appears more than once in " + name);
+        var bindParams = bound.toArray(new Param<?>[0]);
+        // index of the value passed by the caller for each bind variable, or -1 for a constant
+        var valueIndexes = new int[bindParams.length];
+        boolean[] used = new boolean[params.length];
+        for (int i = 0; i < bindParams.length; i++) {
+            valueIndexes[i] = -1;
+            for (int j = 0; j < params.length; j++) {
+                if (bindParams[i] == params[j]) {
+                    valueIndexes[i] = j;
+                    used[j] = true;
+                }
+            }
+        }
+        for (int j = 0; j < params.length; j++) {
+            if ( !used[j] )
+                throw new IllegalStateException("Parameter " + params[j].getName() + " does not appear in " + name);
+        }
+        return new Rendered(ctx.render(query), bindParams, valueIndexes);
+    }
+
+    private static void free(List<AutoCloseable> resources) {
+        for (var resource : resources) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                // like jOOQ, which ignores the failures to free the resources of a statement
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface StatementCallback<T> {
+        T apply(PreparedStatement statement) throws SQLException;
+    }
+
+    private static final class Rendered {
+
+        final String sql;
+        final Param<?>[] bindParams;
+        final int[] valueIndexes;
+
+        Rendered(String sql, Param<?>[] bindParams, int[] valueIndexes) {
+            this.sql = sql;
+            this.bindParams = bindParams;
+            this.valueIndexes = valueIndexes;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        void bind(Configuration configuration, PreparedStatement statement, Object[] values,
+                  List<AutoCloseable> resources) throws SQLException {
+            for (int i = 0; i < bindParams.length; i++) {
+                var param = bindParams[i];
+                var value = valueIndexes[i] < 0 ? param.getValue() : param.getDataType().convert(values[valueIndexes[i]]);
+                Binding binding = param.getBinding();
+                binding.set(new SetStatementContext(configuration, statement, i + 1, value, resources));
+            }
+        }
+    }
+
+    /**
+     * What jOOQ passes to a {@link Binding} to set a bind value, which it only creates internally.
+     */
+    private static final class SetStatementContext<U> implements BindingSetStatementContext<U> {
+
+        private final Configuration configuration;
+        private final PreparedStatement statement;
+        private final int index;
+        private final U value;
+        private final List<AutoCloseable> resources;
+        private Map<Object, Object> data;
+
+        SetStatementContext(Configuration configuration, PreparedStatement statement, int index, U value,
+                            List<AutoCloseable> resources) {
+            this.configuration = configuration;
+            this.statement = statement;
+            this.index = index;
+            this.value = value;
+            this.resources = resources;
+        }
+
+        @Override
+        public PreparedStatement statement() {
+            return statement;
+        }
+
+        @Override
+        public int index() {
+            return index;
+        }
+
+        @Override
+        public U value() {
+            return value;
+        }
+
+        @Override
+        public <T> BindingSetStatementContext<T> convert(Converter<? extends T, ? super U> converter) {
+            return new SetStatementContext<>(configuration, statement, index, converter.to(value), resources);
+        }
+
+        @Override
+        public Array autoFree(Array array) {
+            resources.add(array::free);
+            return array;
+        }
+
+        @Override
+        public Blob autoFree(Blob blob) {
+            resources.add(blob::free);
+            return blob;
+        }
+
+        @Override
+        public Clob autoFree(Clob clob) {
+            resources.add(clob::free);
+            return clob;
+        }
+
+        @Override
+        public SQLXML autoFree(SQLXML xml) {
+            resources.add(xml::free);
+            return xml;
+        }
+
+        @Override
+        public <R extends Closeable> R autoClose(R closeable) {
+            resources.add(closeable);
+            return closeable;
+        }
+
+        @Override
+        public <R extends AutoCloseable> R autoClose(R closeable) {
+            resources.add(closeable);
+            return closeable;
+        }
+
+        @Override
+        public Configuration configuration() {
+            return configuration;
+        }
+
+        @Override
+        public DSLContext dsl() {
+            return DSL.using(configuration);
+        }
+
+        @Override
+        public Settings settings() {
+            return configuration.settings();
+        }
+
+        @Override
+        public SQLDialect dialect() {
+            return configuration.dialect();
+        }
+
+        @Override
+        public SQLDialect family() {
+            return configuration.family();
+        }
+
+        @Override
+        public Map<Object, Object> data() {
+            if (data == null)
+                data = new HashMap<>();
+            return data;
+        }
+
+        @Override
+        public Object data(Object key) {
+            return data().get(key);
+        }
+
+        @Override
+        public Object data(Object key, Object value) {
+            return data().put(key, value);
+        }
+    }
+
+}
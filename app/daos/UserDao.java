@@ -5,18 +5,45 @@ import models.jooq.generated.tables.pojos.UserPojo;
 import models.jooq.generated.tables.records.AccountRecord;
 import models.jooq.generated.tables.records.UserRecord;
 import org.jooq.DSLContext;
+import org.jooq.Field;
 import org.jooq.InsertValuesStep2;
+import org.jooq.JSON;
+import org.jooq.Param;
+import org.jooq.QueryPart;
+import org.jooq.Record;
+import org.jooq.Record1;
 import org.jooq.Result;
+import org.jooq.Select;
+import org.jooq.SelectConditionStep;
+import org.jooq.SelectOnConditionStep;
+import org.jooq.impl.SQLDataType;
+import org.postgresql.PGConnection;
 import scala.Tuple2;
+import scala.util.Either;
+import scala.util.Left;
+import scala.util.Right;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static java.util.Comparator.comparing;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 import static models.jooq.generated.Tables.ACCOUNT;
 import static models.jooq.generated.Tables.USER;
+import static org.jooq.impl.DSL.any;
+import static org.jooq.impl.DSL.deleteFrom;
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.param;
+import static org.jooq.impl.DSL.select;
+import static org.jooq.impl.DSL.selectFrom;
+import static org.jooq.impl.DSL.selectOne;
 
 /**
  * Ideally all SQL operations should go through DAO. These helps to group SQL in 1 place
@@ -25,6 +52,123 @@ import static models.jooq.generated.Tables.USER;
  */
 public class UserDao extends AbstractDao {
 
+    // ----- Queries that are only ever run with different values: built and rendered once -----
+
+    private static final Param<UUID> ID = param("id", USER.ID);
+    private static final Param<UUID> AFTER = param("after", USER.ID);
+    private static final Param<Integer> LIMIT = param("limit", Integer.class);
+    private static final Param<UUID[]> IDS = param("ids", SQLDataType.UUID.getArrayDataType());
+
+    private static final QueryTemplate FIND_BY_ID = new QueryTemplate("user.findById",
+            selectFrom(USER).where(USER.ID.eq(ID)), ID);
+
+    private static final QueryTemplate FIND_BY_ID_FOR_UPDATE = new QueryTemplate("user.findByIdForUpdate",
+            selectFrom(USER).where(USER.ID.eq(ID)).forUpdate(), ID);
+
+    private static final QueryTemplate FIND_BY_ID_WITH_ACCOUNTS = new QueryTemplate("user.findByIdWithAccounts",
+            withAccounts().where(USER.ID.eq(ID)).orderBy(ACCOUNT.ID), ID);
+
+    private static final QueryTemplate FIND_BY_ID_WITH_ACCOUNTS_FOR_UPDATE = new QueryTemplate("user.findByIdWithAccountsForUpdate",
+            withAccounts().where(USER.ID.eq(ID)).orderBy(ACCOUNT.ID).forUpdate().of(USER), ID);
+
+    private static final QueryTemplate FIND_ALL = new QueryTemplate("user.findAll",
+            selectFrom(USER));
+
+    private static final QueryTemplate LOCK_BY_ID = new QueryTemplate("user.lockById",
+            selectFrom(USER).where(USER.ID.eq(ID)).limit(1).forUpdate(), ID);
+
+    private static final QueryTemplate DELETE_ACCOUNTS_BY_USER_ID = new QueryTemplate("user.deleteAccountsByUserId",
+            deleteFrom(ACCOUNT).where(ACCOUNT.USER_ID.eq(ID)), ID);
+
+    private static final QueryTemplate DELETE_BY_ID = new QueryTemplate("user.deleteById",
+            deleteFrom(USER).where(USER.ID.eq(ID)), ID);
+
+    // = ANY(array): the same SQL and a single bind value whatever the number of ids
+    private static final QueryTemplate LOCK_ALL_BY_ID = new QueryTemplate("user.lockAllById",
+            select(USER.ID).from(USER).where(USER.ID.eq(any(IDS))).orderBy(USER.ID).forUpdate(), IDS);
+
+    private static final QueryTemplate DELETE_ACCOUNTS_BY_USER_IDS = new QueryTemplate("user.deleteAccountsByUserIds",
+            deleteFrom(ACCOUNT).where(ACCOUNT.USER_ID.eq(any(IDS))), IDS);
+
+    private static final QueryTemplate DELETE_ALL_BY_ID = new QueryTemplate("user.deleteAllById",
+            deleteFrom(USER).where(USER.ID.eq(any(IDS))), IDS);
+
+    private static final QueryTemplate FIND_ALL_WITH_ACCOUNTS = new QueryTemplate("user.findAllWithAccounts",
+            select().from(USER).join(ACCOUNT).on(USER.ID.eq(ACCOUNT.USER_ID)));
+
+    private static final QueryTemplate FIND_FIRST_PAGE_WITH_ACCOUNTS = new QueryTemplate("user.findFirstPageWithAccounts",
+            pageWithAccounts(select(USER.ID).from(USER).whereExists(hasAccount())), LIMIT);
+
+    private static final QueryTemplate FIND_NEXT_PAGE_WITH_ACCOUNTS = new QueryTemplate("user.findNextPageWithAccounts",
+            pageWithAccounts(select(USER.ID).from(USER).where(USER.ID.gt(AFTER)).andExists(hasAccount())), AFTER, LIMIT);
+
+    private static SelectOnConditionStep<Record> withAccounts() {
+        return select().from(USER).leftJoin(ACCOUNT).on(USER.ID.eq(ACCOUNT.USER_ID));
+    }
+
+    private static Select<Record1<Integer>> hasAccount() {
+        return selectOne().from(ACCOUNT).where(ACCOUNT.USER_ID.eq(USER.ID));
+    }
+
+    private static Select<Record> pageWithAccounts(SelectConditionStep<Record1<UUID>> users) {
+        var page = users.orderBy(USER.ID).limit(LIMIT);
+        return select()
+                .from(USER)
+                .join(ACCOUNT).on(USER.ID.eq(ACCOUNT.USER_ID))
+                .where(USER.ID.in(page))
+                .orderBy(USER.ID, ACCOUNT.ID);
+    }
+
+    // ----- JSON documents built by PostgreSQL -----
+    // Same shape as the JSON written by UserController from the POJOs: {"id", "name", "createdOn", "version", "accounts": [...]}.
+    // Read with getBytes, which PgJDBC answers with the raw UTF-8 of the text on the wire, so the document is never
+    // decoded into a String, let alone into records.
+
+    private static final Field<JSON> ACCOUNT_JSON = jsonBuildObject(
+            "id", ACCOUNT.ID,
+            "email", ACCOUNT.EMAIL,
+            "userId", ACCOUNT.USER_ID,
+            "accountStatus", ACCOUNT.ACCOUNT_STATUS,
+            "createdOn", ACCOUNT.CREATED_ON);
+
+    private static final Field<JSON> USER_JSON = jsonBuildObject(
+            "id", USER.ID,
+            "name", USER.NAME,
+            "createdOn", USER.CREATED_ON,
+            "version", USER.VERSION,
+            "accounts", field("coalesce((select json_agg({0} order by {1}) from {2} where {3}), '[]'::json)",
+                    SQLDataType.JSON, ACCOUNT_JSON, ACCOUNT.ID, ACCOUNT, ACCOUNT.USER_ID.eq(USER.ID)));
+
+    private static final Field<byte[]> USER_JSON_BYTES = USER_JSON.coerce(byte[].class);
+
+    private static final QueryTemplate FIND_BY_ID_WITH_ACCOUNTS_AS_JSON = new QueryTemplate("user.findByIdWithAccountsAsJson",
+            select(USER_JSON_BYTES).from(USER).where(USER.ID.eq(ID)), ID);
+
+    private static final QueryTemplate FIND_ALL_WITH_ACCOUNTS_AS_JSON = new QueryTemplate("user.findAllWithAccountsAsJson",
+            select(field("coalesce(json_agg({0} order by {1}), '[]'::json)", byte[].class, USER_JSON, USER.ID))
+                    .from(USER)
+                    .whereExists(hasAccount()));
+
+    private static final QueryTemplate FIND_FIRST_PAGE_WITH_ACCOUNTS_AS_JSON = new QueryTemplate("user.findFirstPageWithAccountsAsJson",
+            select(USER.ID, USER_JSON_BYTES).from(USER).whereExists(hasAccount()).orderBy(USER.ID).limit(LIMIT), LIMIT);
+
+    private static final QueryTemplate FIND_NEXT_PAGE_WITH_ACCOUNTS_AS_JSON = new QueryTemplate("user.findNextPageWithAccountsAsJson",
+            select(USER.ID, USER_JSON_BYTES).from(USER).where(USER.ID.gt(AFTER)).andExists(hasAccount()).orderBy(USER.ID).limit(LIMIT),
+            AFTER, LIMIT);
+
+    /**
+     * @param keysAndValues alternately a key and the field of its value
+     */
+    private static Field<JSON> jsonBuildObject(Object... keysAndValues) {
+        var template = new StringJoiner(", ", "json_build_object(", ")");
+        var arguments = new QueryPart[keysAndValues.length];
+        for (int i = 0; i < keysAndValues.length; i++) {
+            template.add("{" + i + "}");
+            arguments[i] = i % 2 == 0 ? inline((String) keysAndValues[i]) : (Field<?>) keysAndValues[i];
+        }
+        return field(template.toString(), SQLDataType.JSON, arguments);
+    }
+
     public UserDao(DSLContext ctx) {
         super(ctx);
     }
@@ -49,23 +193,166 @@ public class UserDao extends AbstractDao {
         return new Tuple2<>(user, accountRecords);
     }
 
+    /**
+     * Creates many users and their accounts in a fixed number of statements, whatever the number of users:
+     * <ol>
+     *     <li>one SELECT for the emails that are already taken,</li>
+     *     <li>one multi-row INSERT of the users,</li>
+     *     <li>one multi-row INSERT of all their accounts, skipping emails taken concurrently (ON CONFLICT DO NOTHING),</li>
+     *     <li>and only if such a conflict happened, two DELETEs of the users that lost an email.</li>
+     * </ol>
+     * An email repeated in the batch is kept by the first user which has it.
+     *
+     * <p>The user ids are generated here rather than by the database, so that accounts can be matched
+     * to their user without relying on the order of the rows returned by RETURNING.
+     *
+     * @param users the name and emails of each user
+     * @return for each user, in the same order, either the emails which are already taken (left) or the
+     * created user and accounts (right)
+     */
+    public List<Either<Set<String>, Tuple2<UserRecord, List<AccountRecord>>>> createAll(
+            List<? extends Tuple2<String, ? extends Collection<String>>> users) {
+        var allEmails = new HashSet<String>();
+        var duplicates = new ArrayList<Set<String>>(users.size());
+        for (var user : users) {
+            var duplicated = new HashSet<String>();
+            for (var email : user._2()) {
+                if ( !allEmails.add(email) )
+                    duplicated.add(email);
+            }
+            duplicates.add(duplicated);
+        }
+        if ( !allEmails.isEmpty() ) {
+            var taken = ctx()
+                    .select(ACCOUNT.EMAIL)
+                    .from(ACCOUNT)
+                    .where(ACCOUNT.EMAIL.in(allEmails))
+                    .fetchSet(ACCOUNT.EMAIL);
+            for (int i = 0; i < users.size(); i++) {
+                for (var email : users.get(i)._2()) {
+                    if (taken.contains(email))
+                        duplicates.get(i).add(email);
+                }
+            }
+        }
+
+        var ids = new UUID[users.size()];
+        InsertValuesStep2<UserRecord, UUID, String> userStep = null;
+        InsertValuesStep2<AccountRecord, UUID, String> accountStep = null;
+        for (int i = 0; i < users.size(); i++) {
+            if ( !duplicates.get(i).isEmpty() )
+                continue;
+            ids[i] = UUID.randomUUID();
+            userStep = (userStep == null ? ctx().insertInto(USER, USER.ID, USER.NAME) : userStep)
+                    .values(ids[i], users.get(i)._1());
+            for (var email : users.get(i)._2()) {
+                accountStep = (accountStep == null ? ctx().insertInto(ACCOUNT, ACCOUNT.USER_ID, ACCOUNT.EMAIL) : accountStep)
+                        .values(ids[i], email);
+            }
+        }
+        var userRecords = new HashMap<UUID, UserRecord>();
+        if (userStep != null) {
+            for (var userRecord : userStep.returning().fetch())
+                userRecords.put(userRecord.getId(), userRecord);
+        }
+        var accountRecords = new HashMap<UUID, List<AccountRecord>>();
+        if (accountStep != null) {
+            for (var accountRecord : accountStep.onConflict(ACCOUNT.EMAIL).doNothing().returning().fetch())
+                accountRecords.computeIfAbsent(accountRecord.getUserId(), k -> new ArrayList<>()).add(accountRecord);
+        }
+
+        // users that lost an email to a concurrent insert since the SELECT above
+        var losers = new ArrayList<UUID>();
+        for (int i = 0; i < users.size(); i++) {
+            if (ids[i] == null)
+                continue;
+            var inserted = accountRecords.getOrDefault(ids[i], List.of());
+            if (inserted.size() < users.get(i)._2().size()) {
+                var insertedEmails = inserted.stream().map(AccountRecord::getEmail).collect(toSet());
+                for (var email : users.get(i)._2()) {
+                    if ( !insertedEmails.contains(email) )
+                        duplicates.get(i).add(email);
+                }
+                losers.add(ids[i]);
+                ids[i] = null;
+            }
+        }
+        if ( !losers.isEmpty() ) {
+            ctx().deleteFrom(ACCOUNT).where(ACCOUNT.USER_ID.in(losers)).execute();
+            ctx().deleteFrom(USER).where(USER.ID.in(losers)).execute();
+        }
+
+        var results = new ArrayList<Either<Set<String>, Tuple2<UserRecord, List<AccountRecord>>>>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            if (ids[i] == null)
+                results.add(new Left<>(duplicates.get(i)));
+            else
+                results.add(new Right<>(new Tuple2<>(userRecords.get(ids[i]), accountRecords.getOrDefault(ids[i], List.of()))));
+        }
+        return results;
+    }
+
     public UserRecord findById(UUID id, boolean lockForUpdate) {
-        var step = ctx()
-                .selectFrom(USER)
-                .where(USER.ID.eq(id));
-        if (lockForUpdate)
-            return step.forUpdate().fetchAny();
-        return step.fetchAny();
+        return fetchAny(lockForUpdate ? FIND_BY_ID_FOR_UPDATE : FIND_BY_ID, USER, id);
     }
 
+    /**
+     * Loads a user together with its accounts in a single round trip.
+     *
+     * @param lockForUpdate locks the user row only (an outer join can't lock the nullable side anyway)
+     * @return null if there is no such user
+     */
+    public Tuple2<UserRecord, List<AccountRecord>> findByIdWithAccounts(UUID id, boolean lockForUpdate) {
+        var records = fetch(lockForUpdate ? FIND_BY_ID_WITH_ACCOUNTS_FOR_UPDATE : FIND_BY_ID_WITH_ACCOUNTS, id);
+        return groupRecordsByUser(records).get(id);
+    }
+
+    /**
+     * Loads many users together with their accounts in a single round trip. Thanks to {@code inListPadding}
+     * in {@code jooq-settings.xml}, the IN list only comes in a few sizes, which keeps the number of distinct
+     * statements (and their plans) small. The number of bind variables varies, so unlike the other lookups it
+     * is not a {@link QueryTemplate}.
+     *
+     * @return the users found, by id, in ascending order of id
+     */
+    public Map<UUID, Tuple2<UserRecord, List<AccountRecord>>> findAllByIdWithAccounts(Collection<UUID> ids) {
+        if (ids.isEmpty())
+            return Map.of();
+        var records = ctx()
+                .select()
+                .from(USER)
+                .leftJoin(ACCOUNT).on(USER.ID.eq(ACCOUNT.USER_ID))
+                .where(USER.ID.in(ids))
+                .orderBy(USER.ID, ACCOUNT.ID)
+                .fetch();
+        return groupRecordsByUser(records);
+    }
+
+    /**
+     * Since {@code user.version} is the record's version field, this is a single
+     * {@code UPDATE ... WHERE id = ? AND version = ?} which also increments the version.
+     *
+     * @throws org.jooq.exception.DataChangedException if the row was updated or deleted since the record was loaded
+     */
     public boolean update(UserRecord userRecord) {
         return userRecord.update() == 1;
     }
 
+    /**
+     * Loads all the users into memory at once, see {@link #streamAll} for large tables.
+     */
     public Result<UserRecord> findAll() {
-        return ctx()
-                .selectFrom(USER)
-                .fetch();
+        return fetch(FIND_ALL).into(USER);
+    }
+
+    /**
+     * All the users, in ascending order of id, read through a server-side cursor (see {@link #stream}), e.g. for
+     * background jobs walking the whole table. Must be called inside a transaction, and the stream closed.
+     *
+     * @param fetchSize number of rows fetched from the server per round trip, e.g. {@link #DEFAULT_FETCH_SIZE}
+     */
+    public Stream<UserRecord> streamAll(int fetchSize) {
+        return stream(ctx().selectFrom(USER).orderBy(USER.ID), fetchSize);
     }
 
     public boolean deleteById(UUID id) {
@@ -75,28 +362,89 @@ public class UserDao extends AbstractDao {
         //      This Thread deletes accounts belonging to User =>
         //      Thread2 adds a new Account and commits the transaction =>
         //      This Thread wants to delete User but fails because there are still account rows (inserted by Thread1)
-        var userRecord = ctx().selectFrom(USER)
-                .where(USER.ID.eq(id))
-                .limit(1)
-                .forUpdate()
-                .fetchAny();
+        var userRecord = fetchAny(LOCK_BY_ID, USER, id);
         if (userRecord != null) {
-            ctx().deleteFrom(ACCOUNT)
-                    .where(ACCOUNT.USER_ID.eq(id))
-                    .execute();
-            return userRecord.delete() == 1;
+            execute(DELETE_ACCOUNTS_BY_USER_ID, id);
+            return execute(DELETE_BY_ID, id) == 1;
         }
         return false;
     }
 
+    /**
+     * Same as {@link #deleteById} for many users, in three statements whatever their number: the users are locked
+     * first (for the same reason), in the order of their ids so that two concurrent calls cannot deadlock, then
+     * their accounts are deleted, then the users.
+     *
+     * @return the ids of the users deleted, i.e. of those which existed
+     */
+    public Set<UUID> deleteAllById(Collection<UUID> ids) {
+        if (ids.isEmpty())
+            return Set.of();
+        var idArray = new HashSet<>(ids).toArray(new UUID[0]);
+        var locked = new HashSet<UUID>();
+        for (var record : fetch(LOCK_ALL_BY_ID, (Object) idArray))
+            locked.add(record.get(USER.ID));
+        if (locked.isEmpty())
+            return locked;
+        var lockedArray = locked.toArray(new UUID[0]);
+        execute(DELETE_ACCOUNTS_BY_USER_IDS, (Object) lockedArray);
+        execute(DELETE_ALL_BY_ID, (Object) lockedArray);
+        return locked;
+    }
+
     public TreeMap<UserPojo, List<AccountPojo>> findAllWithAccounts() {
-        var records = ctx()
-                .select()
-                .from(USER)
-                .join(ACCOUNT).on(USER.ID.eq(ACCOUNT.USER_ID))
-                .fetch();
+        return groupByUser(fetch(FIND_ALL_WITH_ACCOUNTS));
+    }
+
+    /**
+     * Keyset pagination over {@link #findAllWithAccounts()}: seeks past {@code after} on the primary key
+     * instead of using OFFSET, so the cost of a page does not depend on how deep into the table it is.
+     *
+     * <p>Users without accounts are skipped in the page subquery itself (like the inner join in
+     * {@link #findAllWithAccounts()}), so a page is only shorter than {@code limit} when it is the last one.
+     *
+     * @param after the id of the last user of the previous page, or null for the first page
+     * @param limit maximum number of users (not rows) in the page
+     */
+    public TreeMap<UserPojo, List<AccountPojo>> findPageWithAccounts(UUID after, int limit) {
+        var records = after == null
+                ? fetch(FIND_FIRST_PAGE_WITH_ACCOUNTS, limit)
+                : fetch(FIND_NEXT_PAGE_WITH_ACCOUNTS, after, limit);
+        return groupByUser(records);
+    }
+
+    /**
+     * Rows of a left join of USER with ACCOUNT, ordered by user. The records stay attached, so the
+     * aggregate can update them.
+     */
+    private static Map<UUID, Tuple2<UserRecord, List<AccountRecord>>> groupRecordsByUser(Iterable<? extends Record> records) {
+        var map = new LinkedHashMap<UUID, Tuple2<UserRecord, List<AccountRecord>>>();
+        for (var record : records) {
+            var userId = record.get(USER.ID);
+            var tuple2 = map.get(userId);
+            if (tuple2 == null) {
+                tuple2 = new Tuple2<>(record.into(USER), new ArrayList<>());
+                map.put(userId, tuple2);
+            }
+            if (record.get(ACCOUNT.ID) != null)
+                tuple2._2().add(record.into(ACCOUNT));
+        }
+        return map;
+    }
+
+    /**
+     * The order of PostgreSQL's {@code uuid} type (i.e. of {@code ORDER BY user.id} and of the keyset pagination),
+     * which compares the bytes as unsigned. {@link UUID#compareTo} compares them as signed longs, which differs
+     * for about half of the ids, e.g. the random ones.
+     */
+    public static int compareUuids(UUID a, UUID b) {
+        int msb = Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits());
+        return msb != 0 ? msb : Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+    }
+
+    private static TreeMap<UserPojo, List<AccountPojo>> groupByUser(Iterable<? extends Record> records) {
         // TreeMap ordering based on id of userPojo is not consistent with equals! (because equals in UserPojo class is based on object identity)
-        var map = new TreeMap<UserPojo, List<AccountPojo>>(comparing(UserPojo::getId));
+        var map = new TreeMap<UserPojo, List<AccountPojo>>(comparing(UserPojo::getId, UserDao::compareUuids));
         for (var record : records) {
             var userPojo    = record.into(USER).into(UserPojo.class); // mapping first to Record will eliminate column ambiguity
             var accountPojo = record.into(ACCOUNT).into(AccountPojo.class);
@@ -105,4 +453,106 @@ public class UserDao extends AbstractDao {
         }
         return map;
     }
+
+    /**
+     * Streaming counterpart of {@link #findAllWithAccounts()}. Rows are read through a server-side cursor
+     * (see {@link #cursor}), ordered by user id so that the accounts of a user arrive contiguously. Each user is handed to the
+     * consumer as soon as its last account has been read, so at most one user's accounts are held in memory.
+     *
+     * @param fetchSize number of rows fetched from the server per round trip
+     * @param consumer called once per user, in ascending order of user id
+     */
+    public void forEachUserWithAccounts(int fetchSize, BiConsumer<UserPojo, List<AccountPojo>> consumer) {
+        var query = ctx()
+                .select()
+                .from(USER)
+                .join(ACCOUNT).on(USER.ID.eq(ACCOUNT.USER_ID))
+                .orderBy(USER.ID, ACCOUNT.ID);
+        try (var cursor = cursor(query, fetchSize)) {
+            UserPojo userPojo = null;
+            List<AccountPojo> accountPojos = null;
+            for (var record : cursor) {
+                var userRecord = record.into(USER);
+                if (userPojo == null || !userPojo.getId().equals(userRecord.getId())) {
+                    if (userPojo != null)
+                        consumer.accept(userPojo, accountPojos);
+                    userPojo = userRecord.into(UserPojo.class);
+                    accountPojos = new ArrayList<>();
+                }
+                accountPojos.add(record.into(ACCOUNT).into(AccountPojo.class));
+            }
+            if (userPojo != null)
+                consumer.accept(userPojo, accountPojos);
+        }
+    }
+
+    // ----- CSV written by PostgreSQL -----
+
+    /**
+     * Writes all the users with their accounts, one row per account, as CSV with a header, in ascending order of
+     * user and account id. PostgreSQL formats the rows itself ({@code COPY ... TO STDOUT}) and PgJDBC copies them
+     * to {@code out} as they arrive, so no record or String is created per row. Must be called inside a transaction.
+     *
+     * @param out should be buffered, PgJDBC writes each row separately
+     * @return the number of rows written
+     */
+    public long copyAllWithAccountsAsCsv(OutputStream out) {
+        var query = select(USER.ID, USER.NAME, USER.CREATED_ON, USER.VERSION,
+                ACCOUNT.ID.as("account_id"), ACCOUNT.EMAIL, ACCOUNT.ACCOUNT_STATUS,
+                ACCOUNT.CREATED_ON.as("account_created_on"))
+                .from(USER)
+                .join(ACCOUNT).on(USER.ID.eq(ACCOUNT.USER_ID))
+                .orderBy(USER.ID, ACCOUNT.ID);
+        // COPY takes no bind values
+        var sql = "COPY (" + ctx().renderInlined(query) + ") TO STDOUT WITH (FORMAT csv, HEADER)";
+        return ctx().connectionResult(connection -> {
+            return connection.unwrap(PGConnection.class).getCopyAPI().copyOut(sql, out);
+        });
+    }
+
+    // ----- JSON built by PostgreSQL, see USER_JSON -----
+
+    /**
+     * @return the JSON of {@link #findByIdWithAccounts} as built by PostgreSQL, or null if there is no such user
+     */
+    public byte[] findByIdWithAccountsAsJson(UUID id) {
+        var result = fetch(FIND_BY_ID_WITH_ACCOUNTS_AS_JSON, id);
+        return result.isEmpty() ? null : result.get(0).get(USER_JSON_BYTES);
+    }
+
+    /**
+     * @return the JSON array of {@link #findAllWithAccounts()} as built by PostgreSQL, as a single document
+     */
+    public byte[] findAllWithAccountsAsJson() {
+        return (byte[]) fetch(FIND_ALL_WITH_ACCOUNTS_AS_JSON).get(0).get(0);
+    }
+
+    /**
+     * {@link #findPageWithAccounts} as JSON built by PostgreSQL.
+     *
+     * @return the JSON object of each user of the page, by id, in ascending order of id
+     */
+    public LinkedHashMap<UUID, byte[]> findPageWithAccountsAsJson(UUID after, int limit) {
+        var records = after == null
+                ? fetch(FIND_FIRST_PAGE_WITH_ACCOUNTS_AS_JSON, limit)
+                : fetch(FIND_NEXT_PAGE_WITH_ACCOUNTS_AS_JSON, after, limit);
+        var page = new LinkedHashMap<UUID, byte[]>();
+        for (var record : records)
+            page.put(record.get(USER.ID), record.get(USER_JSON_BYTES));
+        return page;
+    }
+
+    /**
+     * {@link #forEachUserWithAccounts} as JSON built by PostgreSQL: one row, and one call of the consumer, per user.
+     *
+     * @param consumer called once per user with its JSON object, in ascending order of user id
+     */
+    public void forEachUserWithAccountsAsJson(int fetchSize, Consumer<byte[]> consumer) {
+        var query = ctx()
+                .select(USER_JSON_BYTES)
+                .from(USER)
+                .whereExists(hasAccount())
+                .orderBy(USER.ID);
+        forEach(query, fetchSize, record -> consumer.accept(record.value1()));
+    }
 }
@@ -0,0 +1,114 @@
+package jooq;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import metrics.Metrics;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control in front of the connection pool, so that a saturated pool makes requests fail fast
+ * instead of all of them queueing on Hikari until its connection timeout.
+ *
+ * <p>At most {@code maxConcurrent} transactions run at once. Up to {@code maxWaiting} more may wait, for at
+ * most {@code maxWait} counted from their admission (which, for "Async" transactions, includes the time
+ * spent in the executor's queue). Anything beyond that is rejected immediately with a
+ * {@link DatabaseOverloadedException}.
+ *
+ * <p>Only outermost transactions go through the bulkhead: a nested transaction already holds its caller's place.
+ */
+public class Bulkhead {
+
+    private static final Counter REJECTED = Counter.build()
+            .name("jooq_bulkhead_rejected_total")
+            .help("Transactions rejected because the bulkhead was full or the wait timed out")
+            .labelNames("database", "kind")
+            .register(Metrics.REGISTRY);
+
+    private static final Gauge IN_FLIGHT = Gauge.build()
+            .name("jooq_bulkhead_in_flight")
+            .help("Transactions admitted by the bulkhead, running or waiting")
+            .labelNames("database", "kind")
+            .register(Metrics.REGISTRY);
+
+    private final String name;
+    private final int maxInFlight;
+    private final long maxWaitNanos;
+    private final Duration retryAfter;
+    private final Semaphore running;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter.Child rejected;
+    private final Gauge.Child inFlightGauge;
+
+    public Bulkhead(String database, String kind, int maxConcurrent, int maxWaiting, Duration maxWait,
+                    Duration retryAfter) {
+        this.name = database + "/" + kind;
+        this.maxInFlight = maxConcurrent + maxWaiting;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.retryAfter = retryAfter;
+        this.running = new Semaphore(maxConcurrent, true);
+        this.rejected = REJECTED.labels(database, kind);
+        this.inFlightGauge = IN_FLIGHT.labels(database, kind);
+    }
+
+    /**
+     * Takes a place among the in-flight transactions, without waiting.
+     *
+     * @return the admission time, to pass to {@link #acquire(long)}
+     * @throws DatabaseOverloadedException if all places are taken
+     */
+    long admit() {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            exit();
+            throw reject("full");
+        }
+        inFlightGauge.inc();
+        return System.nanoTime();
+    }
+
+    /**
+     * Waits for the admitted transaction's turn to run, until {@code maxWait} after its admission.
+     * Must be followed by {@link #release()} on success; gives the place up on failure.
+     *
+     * @throws DatabaseOverloadedException if the wait timed out
+     */
+    void acquire(long admittedAt) {
+        boolean acquired = running.tryAcquire();
+        if ( !acquired ) {
+            try {
+                acquired = running.tryAcquire(maxWaitNanos - (System.nanoTime() - admittedAt), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if ( !acquired ) {
+            exitAdmitted();
+            throw reject("timed out waiting");
+        }
+    }
+
+    void release() {
+        running.release();
+        exitAdmitted();
+    }
+
+    /**
+     * Gives up a place taken by {@link #admit()} without having run.
+     */
+    void exitAdmitted() {
+        exit();
+        inFlightGauge.dec();
+    }
+
+    private void exit() {
+        inFlight.decrementAndGet();
+    }
+
+    private DatabaseOverloadedException reject(String reason) {
+        rejected.inc();
+        return new DatabaseOverloadedException("Bulkhead " + name + " " + reason, retryAfter);
+    }
+}
@@ -5,6 +5,13 @@ import java.sql.Connection;
 import java.util.ArrayDeque;
 import java.util.Deque;
 
+/**
+ * Holds the connections of the transactions currently open on this thread, innermost on top.
+ *
+ * <p>Connections should be bound with {@link #bind(Connection)} and {@link #unbind()} in a try-finally, so the
+ * binding is strictly scoped to the block. Once the outermost connection is unbound, the thread-local value is
+ * removed altogether: a thread (virtual or pooled) never keeps a deque around between transactions.
+ */
 @Singleton
 public class ConnectionContext extends ThreadLocal<Deque<Connection>> {
 
@@ -17,4 +24,22 @@ public class ConnectionContext extends ThreadLocal<Deque<Connection>> {
     public Deque<Connection> get() {
         return super.get();
     }
+
+    /**
+     * @return the connection of the innermost transaction on this thread, or null if there is none.
+     */
+    public Connection current() {
+        return get().peek();
+    }
+
+    public void bind(Connection connection) {
+        get().push(connection);
+    }
+
+    public void unbind() {
+        var connections = get();
+        connections.pop();
+        if (connections.isEmpty())
+            remove();
+    }
 }
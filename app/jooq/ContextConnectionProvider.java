@@ -0,0 +1,32 @@
+package jooq;
+
+import org.jooq.ConnectionProvider;
+import org.jooq.exception.DataAccessException;
+
+import java.sql.Connection;
+
+/**
+ * Hands out the connection of the innermost transaction on the current thread, as bound in the
+ * {@link ConnectionContext}. The connection is owned (and closed) by {@link Database}, so releasing
+ * it is a no-op.
+ */
+class ContextConnectionProvider implements ConnectionProvider {
+
+    private final ConnectionContext connectionContext;
+
+    ContextConnectionProvider(ConnectionContext connectionContext) {
+        this.connectionContext = connectionContext;
+    }
+
+    @Override
+    public Connection acquire() {
+        var connection = connectionContext.current();
+        if (connection == null)
+            throw new DataAccessException("No connection in ConnectionContext. Are you inside a jooq.Database transaction?");
+        return connection;
+    }
+
+    @Override
+    public void release(Connection connection) {
+    }
+}
@@ -1,14 +1,26 @@
 package jooq;
 
+import com.typesafe.config.Config;
+import org.jooq.conf.MiniJAXB;
+import org.jooq.conf.Settings;
+import play.Environment;
 import play.db.Database;
+import play.db.TransactionIsolationLevel;
 import play.libs.Scala;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Singleton
 public class DBApi implements play.db.DBApi {
@@ -16,17 +28,127 @@ public class DBApi implements play.db.DBApi {
     private final play.api.db.DBApi dbApi;
     private final List<Database> databases;
     private final Map<String, Database> databaseByName = new HashMap<>();
+    private final List<VirtualThreadExecutor> virtualThreadExecutors = new ArrayList<>();
+    private ScheduledExecutorService replicaMonitor;
 
     @Inject
-    public DBApi(play.api.db.DBApi dbApi, ConnectionContext connectionContext) {
+    public DBApi(play.api.db.DBApi dbApi, ConnectionContext connectionContext, DatabaseExecutionContext executionContext,
+                 Config config, Environment environment) {
         this.dbApi = dbApi;
+        var settings = loadSettings(environment, config.getString("jooq.settings"));
+        boolean virtualThreads = config.getBoolean("database.virtual-threads.enabled");
+        if (virtualThreads)
+            VirtualThreadExecutor.requireUnpinnedDriver();
         var javaDbs = new ArrayList<Database>();
         for (play.api.db.Database scalaDb : Scala.asJava(dbApi.databases())) {
-            var javaDb = new jooq.Database(scalaDb, connectionContext);
+            Executor executor = executionContext;
+            if (virtualThreads) {
+                var virtualThreadExecutor = new VirtualThreadExecutor(maximumPoolSize(config, scalaDb.name()));
+                virtualThreadExecutors.add(virtualThreadExecutor);
+                executor = virtualThreadExecutor;
+            }
+            var javaDb = new jooq.Database(scalaDb, connectionContext, executor, settings);
+            var isolationLevel = defaultIsolationLevel(config, scalaDb.name());
+            if (isolationLevel != null)
+                javaDb.setDefaultIsolationLevel(isolationLevel);
             javaDbs.add(javaDb);
             databaseByName.put(javaDb.getName(), javaDb);
         }
         this.databases = List.copyOf(javaDbs);
+        configureReadReplicas(config);
+        configureBulkheads(config);
+        configureRetries(config);
+    }
+
+    /**
+     * A database retries its outermost transactions on serialization failures and deadlocks (see
+     * {@link RetryPolicy}) if it has e.g.
+     * <pre>
+     * db.default.retry { maxAttempts = 3, minBackoff = 5 millis, maxBackoff = 100 millis }
+     * </pre>
+     */
+    private void configureRetries(Config config) {
+        var dbsConfig = config.getConfig(config.getString("play.db.config"));
+        for (var database : databases) {
+            var path = database.getName() + ".retry";
+            if ( !dbsConfig.hasPath(path) )
+                continue;
+            var retryConfig = dbsConfig.getConfig(path);
+            ((jooq.Database) database).setRetryPolicy(new RetryPolicy(database.getName(),
+                    retryConfig.getInt("maxAttempts"), retryConfig.getDuration("minBackoff"),
+                    retryConfig.getDuration("maxBackoff")));
+        }
+    }
+
+    /**
+     * A database gets a {@link Bulkhead} for its read-only and/or other transactions if it has e.g.
+     * <pre>
+     * db.default.bulkhead {
+     *   write { maxConcurrent = 50, maxWaiting = 50, maxWait = 250 millis, retryAfter = 1 second }
+     *   read { maxConcurrent = 50, maxWaiting = 50, maxWait = 250 millis, retryAfter = 1 second }
+     * }
+     * </pre>
+     */
+    private void configureBulkheads(Config config) {
+        var dbsConfig = config.getConfig(config.getString("play.db.config"));
+        for (var database : databases) {
+            var path = database.getName() + ".bulkhead";
+            if ( !dbsConfig.hasPath(path) )
+                continue;
+            var bulkheadConfig = dbsConfig.getConfig(path);
+            ((jooq.Database) database).setBulkheads(
+                    bulkhead(database.getName(), "read", bulkheadConfig),
+                    bulkhead(database.getName(), "write", bulkheadConfig));
+        }
+    }
+
+    private static Bulkhead bulkhead(String dbName, String kind, Config bulkheadConfig) {
+        if ( !bulkheadConfig.hasPath(kind) )
+            return null;
+        var config = bulkheadConfig.getConfig(kind);
+        return new Bulkhead(dbName, kind, config.getInt("maxConcurrent"), config.getInt("maxWaiting"),
+                config.getDuration("maxWait"), config.getDuration("retryAfter"));
+    }
+
+    /**
+     * A database routes its read-only transactions to another configured database if it has e.g.
+     * <pre>
+     * db.default.readReplica {
+     *   database = "replica"
+     *   maxLag = 5 seconds
+     *   checkInterval = 2 seconds
+     * }
+     * </pre>
+     */
+    private void configureReadReplicas(Config config) {
+        var dbsConfig = config.getConfig(config.getString("play.db.config"));
+        var replicas = new ArrayList<ReadReplica>();
+        var checkIntervals = new ArrayList<Duration>();
+        for (var database : databases) {
+            var path = database.getName() + ".readReplica";
+            if ( !dbsConfig.hasPath(path) )
+                continue;
+            var replicaConfig = dbsConfig.getConfig(path);
+            var replicaDb = getDatabase(replicaConfig.getString("database"));
+            if (replicaDb == null)
+                throw new IllegalStateException("Unknown read replica for database " + database.getName() + ": "
+                        + replicaConfig.getString("database"));
+            var replica = new ReadReplica(replicaDb, replicaConfig.getDuration("maxLag"));
+            ((jooq.Database) database).setReadReplica(replica);
+            replicas.add(replica);
+            checkIntervals.add(replicaConfig.getDuration("checkInterval"));
+        }
+        if (replicas.isEmpty())
+            return;
+        replicaMonitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "read-replica-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < replicas.size(); i++) {
+            var interval = checkIntervals.get(i).toMillis();
+            replicaMonitor.scheduleWithFixedDelay(replicas.get(i)::check, 0, interval, TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
@@ -41,7 +163,58 @@ public class DBApi implements play.db.DBApi {
 
     @Override
     public void shutdown() {
+        if (replicaMonitor != null)
+            replicaMonitor.shutdownNow();
+        virtualThreadExecutors.forEach(VirtualThreadExecutor::shutdown);
         dbApi.shutdown();
     }
 
+    /**
+     * Loaded through the application's class loader. jOOQ's own lookup of {@code /jooq-settings.xml} uses jOOQ's
+     * class loader, which does not see {@code conf/} in dev mode, and would re-clone the settings for every
+     * new {@link org.jooq.impl.DefaultConfiguration} anyway.
+     *
+     * <p>Public for the benchmarks, so that they run with the same settings.
+     */
+    public static Settings loadSettings(Environment environment, String resource) {
+        try (var in = environment.resourceAsStream(resource)) {
+            if (in == null)
+                throw new IllegalStateException("jOOQ settings not found on classpath: " + resource);
+            return MiniJAXB.unmarshal(in, Settings.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Same resolution as Play's: the database's own config falling back to {@code play.db.prototype}.
+     */
+    static int maximumPoolSize(Config config, String dbName) {
+        return hikariConfig(config, dbName).getInt("maximumPoolSize");
+    }
+
+    /**
+     * @return the isolation level set by {@code hikaricp.transactionIsolation}, or null to keep the driver's default.
+     */
+    private static TransactionIsolationLevel defaultIsolationLevel(Config config, String dbName) {
+        var hikariConfig = hikariConfig(config, dbName);
+        if ( !hikariConfig.hasPath("transactionIsolation") )
+            return null;
+        var isolation = hikariConfig.getString("transactionIsolation");
+        switch (isolation) {
+            case "TRANSACTION_READ_UNCOMMITTED": return TransactionIsolationLevel.ReadUncommitted;
+            case "TRANSACTION_READ_COMMITTED": return TransactionIsolationLevel.ReadCommitted;
+            case "TRANSACTION_REPEATABLE_READ": return TransactionIsolationLevel.RepeatableRead;
+            case "TRANSACTION_SERIALIZABLE": return TransactionIsolationLevel.Serializable;
+            default: throw new IllegalStateException("Unknown transactionIsolation for database " + dbName + ": " + isolation);
+        }
+    }
+
+    private static Config hikariConfig(Config config, String dbName) {
+        return config.getConfig(config.getString("play.db.config"))
+                .getConfig(dbName)
+                .withFallback(config.getConfig("play.db.prototype"))
+                .getConfig("hikaricp");
+    }
+
 }
@@ -1,8 +1,16 @@
 package jooq;
 
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import metrics.Metrics;
+import org.jooq.Configuration;
 import org.jooq.DSLContext;
 import org.jooq.SQLDialect;
+import org.jooq.conf.Settings;
 import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.jooq.impl.DefaultConnectionProvider;
+import org.jooq.impl.DefaultExecuteListenerProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import play.db.ConnectionCallable;
@@ -16,9 +24,18 @@ import util.Function1;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * This copies 99% from the {@link play.db.DefaultDatabase} with minor modifications to put the
@@ -31,17 +48,82 @@ import java.util.function.Function;
  * <p>NOTE2: For the methods {@link #getConnection()} and {@link #getConnection(boolean)}, the user is
  * responsible for closing the connection when done (i.e. calling {@link Connection#close()}.
  * Also, the connection acquired this way is not put in the {@link ConnectionContext}.
+ *
+ * <p>NOTE3: Each instance holds one long-lived jOOQ {@link Configuration}, whose {@link org.jooq.ConnectionProvider}
+ * reads the current connection from the {@link ConnectionContext}. {@link #dsl()} is therefore a single shared
+ * {@link DSLContext} that always runs on the connection of the innermost transaction of the calling thread.
+ *
+ * <p>NOTE4: The "Async" variants run the whole transaction on {@link #executor()}, which is sized to the
+ * connection pool. Since the transaction starts and ends on the same thread, the {@link ConnectionContext}
+ * (and hence DAOs injected with a {@code Provider<DSLContext>}) work inside the block as usual.
+ *
+ * <p>NOTE5: The methods without a {@link Propagation} start a new transaction on a connection of its own, even
+ * inside another transaction ({@link Propagation#REQUIRES_NEW}). Pass {@link Propagation#REQUIRED} or
+ * {@link Propagation#NESTED} to run a nested block on the outer transaction's connection instead.
+ *
+ * <p>NOTE6: If configured (see {@link DBApi}), outermost transactions go through a {@link Bulkhead}, one for
+ * read-only transactions and one for the others. When it is full, the transaction is not started and a
+ * {@link DatabaseOverloadedException} is thrown (the "Async" variants return it failed without submitting
+ * anything to {@link #executor()}).
+ *
+ * <p>NOTE7: If configured (see {@link DBApi}), an outermost transaction which fails with a serialization failure
+ * or a deadlock is rolled back and run again, block included, as per its {@link RetryPolicy}. The block must
+ * therefore be safe to run more than once, which is the case as long as it only changes the database. Nested
+ * transactions are never retried on their own: the failure propagates to the outermost one, which retries all.
  */
 public class Database implements play.db.Database {
 
     private static final Logger logger = LoggerFactory.getLogger(Database.class);
 
+    private static final Histogram TRANSACTION_DURATION = Histogram.build()
+            .name("jooq_transaction_duration_seconds")
+            .help("Duration of jooq.Database transactions, from acquiring the connection to releasing it")
+            .labelNames("database")
+            .buckets(Metrics.LATENCY_BUCKETS)
+            .register(Metrics.REGISTRY);
+
+    private static final Counter TRANSACTIONS = Counter.build()
+            .name("jooq_transactions_total")
+            .help("jooq.Database transactions by outcome")
+            .labelNames("database", "outcome")
+            .register(Metrics.REGISTRY);
+
     public final ConnectionContext connectionContext;
     private final play.api.db.Database scalaDb;
+    private final Executor executor;
+    private final Configuration configuration;
+    private final DSLContext dsl;
+    private volatile ReadReplica readReplica;
+    private volatile Bulkhead readBulkhead;
+    private volatile Bulkhead writeBulkhead;
+    private volatile RetryPolicy retryPolicy;
+    private volatile TransactionIsolationLevel defaultIsolationLevel = TransactionIsolationLevel.ReadCommitted;
+
+    private final Histogram.Child transactionDuration;
+    private final Counter.Child commits;
+    private final Counter.Child rollbacks;
 
-    public Database(play.api.db.Database database, ConnectionContext connectionContext) {
+    /**
+     * The transactions (and savepoints) of this database open on this thread, innermost on top.
+     */
+    private final ThreadLocal<Deque<Frame>> frames = ThreadLocal.withInitial(ArrayDeque::new);
+
+    public Database(play.api.db.Database database, ConnectionContext connectionContext, Executor executor,
+                    Settings settings) {
         this.scalaDb = database;
         this.connectionContext = connectionContext;
+        this.executor = executor;
+        this.configuration = new DefaultConfiguration()
+                .set(SQLDialect.POSTGRES)
+                .set(settings)
+                .set(new ContextConnectionProvider(connectionContext))
+                .set(new DefaultExecuteListenerProvider(new QueryMetricsListener()));
+        // copied into the configurations derived from it, see of(Configuration)
+        this.configuration.data(Database.class, this);
+        this.dsl = DSL.using(configuration);
+        this.transactionDuration = TRANSACTION_DURATION.labels(getName());
+        this.commits = TRANSACTIONS.labels(getName(), "commit");
+        this.rollbacks = TRANSACTIONS.labels(getName(), "rollback");
     }
 
     @Override
@@ -93,14 +175,14 @@ public class Database implements play.db.Database {
         boolean[] connAcquired = { false };
         try {
             scalaDb.withConnection(conn -> {
-                connectionContext.get().push(conn);
+                connectionContext.bind(conn);
                 connAcquired[0] = true;
                 connectionFunction(block).apply(conn);
                 return null;
             });
         } finally {
             if (connAcquired[0])
-                connectionContext.get().pop();
+                connectionContext.unbind();
         }
     }
 
@@ -109,13 +191,13 @@ public class Database implements play.db.Database {
         boolean[] connAcquired = { false };
         try {
             return scalaDb.withConnection(conn -> {
-                connectionContext.get().push(conn);
+                connectionContext.bind(conn);
                 connAcquired[0] = true;
                 return connectionFunction(block).apply(conn);
             });
         } finally {
             if (connAcquired[0])
-                connectionContext.get().pop();
+                connectionContext.unbind();
         }
     }
 
@@ -124,14 +206,14 @@ public class Database implements play.db.Database {
         boolean[] connAcquired = { false };
         try {
             scalaDb.withConnection(autocommit, conn -> {
-                connectionContext.get().push(conn);
+                connectionContext.bind(conn);
                 connAcquired[0] = true;
                 connectionFunction(block).apply(conn);
                 return null;
             });
         } finally {
             if (connAcquired[0])
-                connectionContext.get().pop();
+                connectionContext.unbind();
         }
     }
 
@@ -140,13 +222,13 @@ public class Database implements play.db.Database {
         boolean[] connAcquired = { false };
         try {
             return scalaDb.withConnection(autocommit, conn -> {
-                connectionContext.get().push(conn);
+                connectionContext.bind(conn);
                 connAcquired[0] = true;
                 return connectionFunction(block).apply(conn);
             });
         } finally {
             if (connAcquired[0])
-                connectionContext.get().pop();
+                connectionContext.unbind();
         }
     }
 
@@ -179,9 +261,9 @@ public class Database implements play.db.Database {
     private <A> A withTransaction0(TransactionIsolationLevel isolationLevel, boolean nullableIsolationLevel,
                                    ConnectionCallable<A> block) {
         try {
-            return transactionEx0(isolationLevel, nullableIsolationLevel, ctx -> {
+            return transactionEx0(isolationLevel, nullableIsolationLevel, false, false, Propagation.REQUIRES_NEW, ctx -> {
                 // return ctx.connectionResult(block::call);
-                var conn = connectionContext.get().peek();
+                var conn = connectionContext.current();
                 return block.call(conn);
             });
         } catch (RuntimeException e) {
@@ -196,6 +278,36 @@ public class Database implements play.db.Database {
         scalaDb.shutdown();
     }
 
+    /**
+     * @return the shared configuration, whose connection is the one of the innermost transaction on the calling thread.
+     */
+    public Configuration configuration() {
+        return configuration;
+    }
+
+    /**
+     * @return the Database whose {@link #configuration()} this is, or was derived from (as for the DSLContext of
+     * a transaction), or null if it is not from a Database
+     */
+    public static Database of(Configuration configuration) {
+        return (Database) configuration.data(Database.class);
+    }
+
+    /**
+     * @return a shared DSLContext on {@link #configuration()}. Unlike the DSLContext passed to the transactional
+     * blocks, it is not tied to one connection.
+     */
+    public DSLContext dsl() {
+        return dsl;
+    }
+
+    /**
+     * @return the executor on which the "Async" variants run their transactions.
+     */
+    public Executor executor() {
+        return executor;
+    }
+
     // ---------- Extra methods to use org.jooq.DSLContext directly ----------
     // These methods throws Exception, and they also allows callers throwing Exception in the block.
     // They also allow transaction to commit in spite of exception if the exception thrown is instance
@@ -204,25 +316,82 @@ public class Database implements play.db.Database {
     // ----- Variant which propagate Exception: method names ends with "Ex" -----
 
     public void transactionEx(Consumer1<DSLContext> block) throws Exception {
-        transactionEx0(null, true, ctx -> {
+        transactionEx0(null, true, false, false, Propagation.REQUIRES_NEW, ctx -> {
             block.accept(ctx);
             return null;
         });
     }
 
     public void transactionEx(TransactionIsolationLevel isolationLevel, Consumer1<DSLContext> block) throws Exception {
-        transactionEx0(isolationLevel, false, ctx -> {
+        transactionEx0(isolationLevel, false, false, false, Propagation.REQUIRES_NEW, ctx -> {
             block.accept(ctx);
             return null;
         });
     }
 
     public <T> T transactionEx(Function1<DSLContext, T> block) throws Exception {
-        return transactionEx0(null, true, block);
+        return transactionEx0(null, true, false, false, Propagation.REQUIRES_NEW, block);
     }
 
     public <T> T transactionEx(TransactionIsolationLevel isolationLevel, Function1<DSLContext, T> block) throws Exception {
-        return transactionEx0(isolationLevel, false, block);
+        return transactionEx0(isolationLevel, false, false, false, Propagation.REQUIRES_NEW, block);
+    }
+
+    public void transactionEx(Propagation propagation, Consumer1<DSLContext> block) throws Exception {
+        transactionEx0(null, true, false, false, propagation, ctx -> {
+            block.accept(ctx);
+            return null;
+        });
+    }
+
+    public <T> T transactionEx(Propagation propagation, Function1<DSLContext, T> block) throws Exception {
+        return transactionEx0(null, true, false, false, propagation, block);
+    }
+
+    /**
+     * @param admitted whether the caller has already been let through the bulkhead (the "Async" variants)
+     */
+    private <T> T transactionEx0(TransactionIsolationLevel isolationLevel, boolean nullableIsolationLevel,
+                                 boolean readOnly, boolean admitted, Propagation propagation,
+                                 Function1<DSLContext, T> block) throws Exception {
+        if ( !nullableIsolationLevel )
+            Objects.requireNonNull(isolationLevel);
+        var outer = propagation == Propagation.REQUIRES_NEW ? null : currentFrame();
+        if (outer != null) {
+            outer.checkJoinable(isolationLevel, readOnly);
+            if (propagation == Propagation.REQUIRED)
+                return joinTransaction(outer, block);
+            return runSavepoint(outer, block);
+        }
+        var bulkhead = admitted || connectionContext.current() != null ? null : bulkhead(readOnly);
+        if (bulkhead == null)
+            return runTransactionWithRetries(isolationLevel, readOnly, block);
+        bulkhead.acquire(bulkhead.admit());
+        try {
+            return runTransactionWithRetries(isolationLevel, readOnly, block);
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Runs the transaction again as long as its {@link RetryPolicy} says so, if it is the outermost one. The place
+     * in the bulkhead is kept in the meantime.
+     */
+    private <T> T runTransactionWithRetries(TransactionIsolationLevel isolationLevel, boolean readOnly,
+                                            Function1<DSLContext, T> block) throws Exception {
+        var retryPolicy = this.retryPolicy;
+        if (retryPolicy == null || currentFrame() != null)
+            return runTransaction(isolationLevel, readOnly, block);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return runTransaction(isolationLevel, readOnly, block);
+            } catch (Exception e) {
+                if ( !retryPolicy.shouldRetry(e, attempt) || !retryPolicy.backoff(attempt) )
+                    throw e;
+                logger.debug("Retrying transaction after attempt {} failed", attempt, e);
+            }
+        }
     }
 
     /**
@@ -232,31 +401,37 @@ public class Database implements play.db.Database {
      * <p>This violates the recommendation in {@link java.sql.Connection#close} which states that we should rollback
      * or commit prior to closing.
      */
-    @SuppressWarnings({"MagicConstant", "ThrowFromFinallyBlock"})
-    private <T> T transactionEx0(TransactionIsolationLevel isolationLevel, boolean nullableIsolationLevel,
+    @SuppressWarnings("ThrowFromFinallyBlock")
+    private <T> T runTransaction(TransactionIsolationLevel isolationLevel, boolean readOnly,
                                  Function1<DSLContext, T> block) throws Exception {
-        if ( !nullableIsolationLevel )
-            Objects.requireNonNull(isolationLevel);
         Throwable throwable = null;
-        Integer oldIsolationLevel = null;
         boolean connAcquired = false;
-        var connection = scalaDb.getConnection(false);
+        boolean committed = false;
+        long start = System.nanoTime();
+        var connection = readOnly ? getReadOnlyConnection() : getTransactionalConnection(this);
+        // pinned to this connection, so that it keeps working on the outer transaction inside a nested one
+        var ctx = DSL.using(configuration.derive(new DefaultConnectionProvider(connection)));
+        var frame = new Frame(connection, ctx, readOnly, isolationLevel != null ? isolationLevel : defaultIsolationLevel);
         try {
-            connectionContext.get().push(connection);
+            connectionContext.bind(connection);
+            frames.get().push(frame);
             connAcquired = true;
-            if (isolationLevel != null)
-                oldIsolationLevel = connection.getTransactionIsolation();
             try {
-                if (isolationLevel != null)
-                    connection.setTransactionIsolation(isolationLevel.getId());
-                var ctx = DSL.using(connection, SQLDialect.POSTGRES);
+                // PgJDBC sends it as part of the BEGIN, no round trip
+                if (readOnly && !connection.isReadOnly())
+                    connection.setReadOnly(true);
+                if (isolationLevel != null && isolationLevel != defaultIsolationLevel)
+                    setTransactionIsolation(connection, isolationLevel);
                 T t = block.apply(ctx);
+                frame.checkNotRollbackOnly();
                 connection.commit();
+                committed = true;
                 return t;
             } catch (Throwable t) {
-                if (t instanceof NoRollbackException) {
+                if (t instanceof NoRollbackException && !frame.rollbackOnly) {
                     try {
                         connection.commit();
+                        committed = true;
                     } catch (SQLException ex) {
                         t.addSuppressed(ex);
                         logger.error("Could not commit transaction", ex);
@@ -271,10 +446,6 @@ public class Database implements play.db.Database {
                 }
                 throwable = t;
                 throw t;
-            } finally {
-                if (isolationLevel != null) {
-                    connection.setTransactionIsolation(oldIsolationLevel);
-                }
             }
         } finally {
             SQLException sqlException = null;
@@ -289,41 +460,165 @@ public class Database implements play.db.Database {
                 }
                 logger.error("Could not close connection", ex);
             }
-            if (connAcquired)
-                connectionContext.get().pop();
+            if (connAcquired) {
+                connectionContext.unbind();
+                popFrame();
+            }
+            transactionDuration.observe((System.nanoTime() - start) / 1e9);
+            if (committed) {
+                commits.inc();
+                runAfterCommitCallbacks(frame.callbacks);
+            } else {
+                rollbacks.inc();
+            }
             if (sqlException != null)
                 throw sqlException;
         }
     }
 
+    /**
+     * {@link Propagation#REQUIRED}: runs the block on the connection of the outer transaction, which commits it.
+     */
+    private <T> T joinTransaction(Frame outer, Function1<DSLContext, T> block) throws Exception {
+        connectionContext.bind(outer.connection);
+        try {
+            return block.apply(outer.ctx);
+        } catch (Throwable t) {
+            if ( !(t instanceof NoRollbackException) )
+                outer.rollbackOnly = true;
+            throw t;
+        } finally {
+            connectionContext.unbind();
+        }
+    }
+
+    /**
+     * {@link Propagation#NESTED}: runs the block on the connection of the outer transaction, within a savepoint.
+     * Its after-commit callbacks are handed over to the outer transaction once the savepoint is released.
+     */
+    private <T> T runSavepoint(Frame outer, Function1<DSLContext, T> block) throws Exception {
+        var connection = outer.connection;
+        var savepoint = connection.setSavepoint();
+        var frame = new Frame(connection, outer.ctx, outer.readOnly, outer.isolationLevel);
+        boolean released = false;
+        connectionContext.bind(connection);
+        frames.get().push(frame);
+        try {
+            T t = block.apply(outer.ctx);
+            frame.checkNotRollbackOnly();
+            connection.releaseSavepoint(savepoint);
+            released = true;
+            return t;
+        } catch (Throwable t) {
+            if (t instanceof NoRollbackException && !frame.rollbackOnly) {
+                try {
+                    connection.releaseSavepoint(savepoint);
+                    released = true;
+                } catch (SQLException ex) {
+                    t.addSuppressed(ex);
+                    logger.error("Could not release savepoint", ex);
+                }
+            } else {
+                try {
+                    connection.rollback(savepoint);
+                } catch (SQLException ex) {
+                    t.addSuppressed(ex);
+                    outer.rollbackOnly = true;
+                    logger.error("Could not rollback to savepoint", ex);
+                }
+            }
+            throw t;
+        } finally {
+            connectionContext.unbind();
+            popFrame();
+            if (released)
+                outer.callbacks.addAll(frame.callbacks);
+        }
+    }
+
+    /**
+     * Registers a callback to run once the transaction of the calling thread has committed, e.g. to invalidate
+     * a cache. Within a {@link Propagation#REQUIRED} or {@link Propagation#NESTED} block, that is once the
+     * outermost transaction it is part of has committed. It does not run if the transaction (or the savepoint)
+     * rolls back. Exceptions thrown by the callback are logged and do not affect the (already committed) transaction.
+     *
+     * @throws IllegalStateException if not called inside a transaction
+     */
+    public void afterCommit(Runnable callback) {
+        var frame = currentFrame();
+        if (frame == null)
+            throw new IllegalStateException("afterCommit must be called inside a transaction");
+        frame.callbacks.add(callback);
+    }
+
+    /**
+     * @return the innermost transaction of this database open on this thread, or null
+     */
+    private Frame currentFrame() {
+        var deque = frames.get();
+        if (deque.isEmpty()) {
+            frames.remove();
+            return null;
+        }
+        return deque.peek();
+    }
+
+    private void popFrame() {
+        var deque = frames.get();
+        deque.pop();
+        if (deque.isEmpty())
+            frames.remove();
+    }
+
+    private static void runAfterCommitCallbacks(List<Runnable> callbacks) {
+        for (var callback : callbacks) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                logger.error("After-commit callback failed", e);
+            }
+        }
+    }
+
     // ----- Variant which does not propagate Exception: method names does not end with "Ex" -----
 
     public void transaction(Consumer<DSLContext> block) {
-        transaction0(null, true, ctx -> {
+        transaction0(null, true, false, false, Propagation.REQUIRES_NEW, ctx -> {
             block.accept(ctx);
             return null;
         });
     }
 
     public void transaction(TransactionIsolationLevel isolationLevel, Consumer<DSLContext> block) {
-        transaction0(isolationLevel, false, ctx -> {
+        transaction0(isolationLevel, false, false, false, Propagation.REQUIRES_NEW, ctx -> {
             block.accept(ctx);
             return null;
         });
     }
 
     public <T> T transaction(Function<DSLContext, T> block) {
-        return transaction0(null, true, block);
+        return transaction0(null, true, false, false, Propagation.REQUIRES_NEW, block);
     }
 
     public <T> T transaction(TransactionIsolationLevel isolationLevel, Function<DSLContext, T> block) {
-        return transaction0(isolationLevel, false, block);
+        return transaction0(isolationLevel, false, false, false, Propagation.REQUIRES_NEW, block);
+    }
+
+    public void transaction(Propagation propagation, Consumer<DSLContext> block) {
+        transaction0(null, true, false, false, propagation, ctx -> {
+            block.accept(ctx);
+            return null;
+        });
+    }
+
+    public <T> T transaction(Propagation propagation, Function<DSLContext, T> block) {
+        return transaction0(null, true, false, false, propagation, block);
     }
 
     private <T> T transaction0(TransactionIsolationLevel isolationLevel, boolean nullableIsolationLevel,
-                               Function<DSLContext, T> block) {
+                               boolean readOnly, boolean admitted, Propagation propagation, Function<DSLContext, T> block) {
         try {
-            return transactionEx0(isolationLevel, nullableIsolationLevel, block::apply);
+            return transactionEx0(isolationLevel, nullableIsolationLevel, readOnly, admitted, propagation, block::apply);
         } catch (RuntimeException e) {
             throw e;
         } catch (Exception e) {
@@ -331,6 +626,221 @@ public class Database implements play.db.Database {
         }
     }
 
+    // ----- Read-only variants: routed to the read replica, if one is configured and available -----
+    // The connection is set read-only, so any write fails. Note that a replica may not yet see what the
+    // caller has just committed on the primary.
+
+    public void transactionReadOnly(Consumer<DSLContext> block) {
+        transaction0(null, true, true, false, Propagation.REQUIRES_NEW, ctx -> {
+            block.accept(ctx);
+            return null;
+        });
+    }
+
+    public <T> T transactionReadOnly(Function<DSLContext, T> block) {
+        return transaction0(null, true, true, false, Propagation.REQUIRES_NEW, block);
+    }
+
+    public void transactionReadOnly(Propagation propagation, Consumer<DSLContext> block) {
+        transaction0(null, true, true, false, propagation, ctx -> {
+            block.accept(ctx);
+            return null;
+        });
+    }
+
+    public <T> T transactionReadOnly(Propagation propagation, Function<DSLContext, T> block) {
+        return transaction0(null, true, true, false, propagation, block);
+    }
+
+    public CompletionStage<Void> transactionReadOnlyAsync(Consumer<DSLContext> block) {
+        return async(true, () -> transaction0(null, true, true, true, Propagation.REQUIRES_NEW, ctx -> {
+            block.accept(ctx);
+            return null;
+        }));
+    }
+
+    public <T> CompletionStage<T> transactionReadOnlyAsync(Function<DSLContext, T> block) {
+        return async(true, () -> transaction0(null, true, true, true, Propagation.REQUIRES_NEW, block));
+    }
+
+    /**
+     * Sets the replica that read-only transactions are routed to. Done once by {@link DBApi} on startup.
+     */
+    void setReadReplica(ReadReplica readReplica) {
+        this.readReplica = readReplica;
+    }
+
+    public ReadReplica getReadReplica() {
+        return readReplica;
+    }
+
+    private Connection getReadOnlyConnection() throws SQLException {
+        var replica = this.readReplica;
+        if (replica != null) {
+            var connection = replica.getConnection();
+            if (connection != null)
+                return connection;
+        }
+        return getTransactionalConnection(this);
+    }
+
+    // ----- Session state -----
+    // The pool resets the isolation level, read-only flag and autocommit of a connection to its configured
+    // defaults when the connection is returned, if (and only if) they were changed. So a transaction only sends
+    // what differs from these defaults, and the isolation level is set for the transaction alone (SET TRANSACTION
+    // rather than Connection#setTransactionIsolation, which costs a round trip to set it and another to reset it).
+
+    /**
+     * Sets the isolation level the pool hands connections out with ({@code hikaricp.transactionIsolation}).
+     * Done once by {@link DBApi} on startup.
+     */
+    void setDefaultIsolationLevel(TransactionIsolationLevel defaultIsolationLevel) {
+        this.defaultIsolationLevel = Objects.requireNonNull(defaultIsolationLevel);
+    }
+
+    /**
+     * Like {@code getConnection(false)}, except that autocommit is only switched off if the pooled connection
+     * does not already have it off (see {@code hikaricp.autoCommit} in application.conf).
+     */
+    static Connection getTransactionalConnection(play.db.Database database) throws SQLException {
+        var connection = database.getDataSource().getConnection();
+        try {
+            if (connection.getAutoCommit())
+                connection.setAutoCommit(false);
+            return connection;
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private static void setTransactionIsolation(Connection connection, TransactionIsolationLevel isolationLevel)
+            throws SQLException {
+        try (var statement = connection.createStatement()) {
+            statement.execute("SET TRANSACTION ISOLATION LEVEL " + isolationLevelSql(isolationLevel));
+        }
+    }
+
+    private static String isolationLevelSql(TransactionIsolationLevel isolationLevel) {
+        switch (isolationLevel) {
+            case ReadUncommitted: return "READ UNCOMMITTED";
+            case ReadCommitted: return "READ COMMITTED";
+            case RepeatableRead: return "REPEATABLE READ";
+            case Serializable: return "SERIALIZABLE";
+            default: throw new IllegalArgumentException("Unsupported isolation level: " + isolationLevel);
+        }
+    }
+
+    // ----- Asynchronous variants: method names end with "Async" -----
+    // The returned CompletionStage completes exceptionally (with a CompletionException) instead of throwing.
+
+    public CompletionStage<Void> transactionAsync(Consumer<DSLContext> block) {
+        return async(false, () -> transaction0(null, true, false, true, Propagation.REQUIRES_NEW, ctx -> {
+            block.accept(ctx);
+            return null;
+        }));
+    }
+
+    public CompletionStage<Void> transactionAsync(TransactionIsolationLevel isolationLevel, Consumer<DSLContext> block) {
+        return async(false, () -> transaction0(isolationLevel, false, false, true, Propagation.REQUIRES_NEW, ctx -> {
+            block.accept(ctx);
+            return null;
+        }));
+    }
+
+    public <T> CompletionStage<T> transactionAsync(Function<DSLContext, T> block) {
+        return async(false, () -> transaction0(null, true, false, true, Propagation.REQUIRES_NEW, block));
+    }
+
+    public <T> CompletionStage<T> transactionAsync(TransactionIsolationLevel isolationLevel, Function<DSLContext, T> block) {
+        return async(false, () -> transaction0(isolationLevel, false, false, true, Propagation.REQUIRES_NEW, block));
+    }
+
+    /**
+     * Admits the transaction into the bulkhead on the calling thread, so that an overloaded database is reported
+     * right away instead of after queueing in the executor. The time spent in the executor's queue counts towards
+     * the bulkhead's maximum wait.
+     */
+    private <T> CompletionStage<T> async(boolean readOnly, Supplier<T> transaction) {
+        var bulkhead = bulkhead(readOnly);
+        if (bulkhead == null)
+            return CompletableFuture.supplyAsync(transaction, executor);
+        long admittedAt;
+        try {
+            admittedAt = bulkhead.admit();
+        } catch (DatabaseOverloadedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                bulkhead.acquire(admittedAt);
+                try {
+                    return transaction.get();
+                } finally {
+                    bulkhead.release();
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            bulkhead.exitAdmitted();
+            throw e;
+        }
+    }
+
+    /**
+     * Sets the bulkheads in front of this database. Done once by {@link DBApi} on startup; either may be null.
+     */
+    void setBulkheads(Bulkhead readBulkhead, Bulkhead writeBulkhead) {
+        this.readBulkhead = readBulkhead;
+        this.writeBulkhead = writeBulkhead;
+    }
+
+    /**
+     * Sets the policy for retrying outermost transactions. Done once by {@link DBApi} on startup; may be null.
+     */
+    void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    private Bulkhead bulkhead(boolean readOnly) {
+        return readOnly ? readBulkhead : writeBulkhead;
+    }
+
+    /**
+     * A transaction, or a savepoint within one, open on the current thread.
+     */
+    private static final class Frame {
+
+        final Connection connection;
+        final DSLContext ctx;
+        final boolean readOnly;
+        final TransactionIsolationLevel isolationLevel;
+        final List<Runnable> callbacks = new ArrayList<>(0);
+        /**
+         * Set when a block which joined this transaction failed: it may then only roll back.
+         */
+        boolean rollbackOnly;
+
+        Frame(Connection connection, DSLContext ctx, boolean readOnly, TransactionIsolationLevel isolationLevel) {
+            this.connection = connection;
+            this.ctx = ctx;
+            this.readOnly = readOnly;
+            this.isolationLevel = isolationLevel;
+        }
+
+        void checkJoinable(TransactionIsolationLevel isolationLevel, boolean readOnly) {
+            if (this.readOnly && !readOnly)
+                throw new IllegalStateException("Cannot run a read-write block in an outer read-only transaction");
+            if (isolationLevel != null && isolationLevel != this.isolationLevel)
+                throw new IllegalStateException("Cannot run a block with isolation level " + isolationLevel
+                        + " in an outer transaction with isolation level " + this.isolationLevel);
+        }
+
+        void checkNotRollbackOnly() {
+            if (rollbackOnly)
+                throw new IllegalStateException("Transaction rolled back because a block which joined it failed");
+        }
+    }
+
     /**
      * Copied from {@link play.db.DefaultDatabase}'s connectionFunction.
      */
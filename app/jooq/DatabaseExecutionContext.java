@@ -0,0 +1,27 @@
+package jooq;
+
+import akka.actor.ActorSystem;
+import play.libs.concurrent.CustomExecutionContext;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Execution context for blocking JDBC work that must not run on Play's default dispatcher. This is
+ * where {@link Database}'s "Async" transactions run.
+ *
+ * <p>Configured under {@code database.dispatcher} in {@code application.conf}. It has as many threads as
+ * the connection pool has connections: any extra thread would only wait on the pool.
+ *
+ * @see <a href="https://www.playframework.com/documentation/2.8.x/ThreadPools#Using-other-thread-pools">
+ *     Using other thread pools</a>
+ */
+@Singleton
+public class DatabaseExecutionContext extends CustomExecutionContext {
+
+    @Inject
+    public DatabaseExecutionContext(ActorSystem actorSystem) {
+        super(actorSystem, "database.dispatcher");
+    }
+
+}
@@ -0,0 +1,22 @@
+package jooq;
+
+import java.time.Duration;
+
+/**
+ * Thrown instead of starting a transaction when the {@link Bulkhead} of the database is full. Rendered as
+ * 503 Service Unavailable with a Retry-After header.
+ */
+public class DatabaseOverloadedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public DatabaseOverloadedException(String message, Duration retryAfter) {
+        super(message, null, false, false);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+}
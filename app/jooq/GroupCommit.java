@@ -0,0 +1,156 @@
+package jooq;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import metrics.Metrics;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Group commit: merges the items submitted concurrently into batches, each of which is then written in a single
+ * transaction, i.e. with a single commit (and WAL flush) for all of them.
+ *
+ * <p>A batch is written {@code window} after its first item was submitted, or as soon as it has
+ * {@code maxBatchSize} items, so an item waits at most {@code window} before its transaction starts.
+ *
+ * <p>Each caller gets its own result: the batch function returns one output per item, in the same order. If the
+ * batch transaction fails as a whole (e.g. one item violates a constraint), each item is written again on its own
+ * with the single function, so that only the callers whose items fail get an error. Except if the database is
+ * overloaded, which is reported to all the callers.
+ *
+ * <p>Batch sizes and fallbacks are recorded in {@code jooq_group_commit_batch_size} and
+ * {@code jooq_group_commit_fallbacks_total}.
+ *
+ * @param <I> the items submitted
+ * @param <O> the result of each item
+ */
+public class GroupCommit<I, O> {
+
+    private static final Histogram BATCH_SIZE = Histogram.build()
+            .name("jooq_group_commit_batch_size")
+            .help("Items written per group commit")
+            .labelNames("name")
+            .exponentialBuckets(1, 2, 10)
+            .register(Metrics.REGISTRY);
+
+    private static final Counter FALLBACKS = Counter.build()
+            .name("jooq_group_commit_fallbacks_total")
+            .help("Group commits which failed as a whole, whose items were written one by one instead")
+            .labelNames("name")
+            .register(Metrics.REGISTRY);
+
+    private final int maxBatchSize;
+    private final Function<List<I>, CompletionStage<List<O>>> batch;
+    private final Function<I, CompletionStage<O>> single;
+    private final Executor delayed;
+    private final Histogram.Child batchSize;
+    private final Counter.Child fallbacks;
+
+    /**
+     * The batch being filled, or null. Guarded by this.
+     */
+    private Batch current;
+
+    /**
+     * @param name   identifies the group commit in the metrics
+     * @param batch  writes all the items in one transaction
+     * @param single writes one item in a transaction of its own
+     */
+    public GroupCommit(String name, Duration window, int maxBatchSize,
+                       Function<List<I>, CompletionStage<List<O>>> batch, Function<I, CompletionStage<O>> single) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("maxBatchSize must be at least 1: " + maxBatchSize);
+        this.maxBatchSize = maxBatchSize;
+        this.batch = batch;
+        this.single = single;
+        this.delayed = CompletableFuture.delayedExecutor(window.toNanos(), TimeUnit.NANOSECONDS);
+        this.batchSize = BATCH_SIZE.labels(name);
+        this.fallbacks = FALLBACKS.labels(name);
+    }
+
+    /**
+     * @return completes with the result of the item once its batch is committed
+     */
+    public CompletionStage<O> submit(I item) {
+        var future = new CompletableFuture<O>();
+        Batch full = null;
+        synchronized (this) {
+            var batch = current;
+            if (batch == null) {
+                batch = new Batch();
+                current = batch;
+                var scheduled = batch;
+                delayed.execute(() -> {
+                    if (close(scheduled))
+                        write(scheduled);
+                });
+            }
+            batch.items.add(item);
+            batch.futures.add(future);
+            if (batch.items.size() >= maxBatchSize && close(batch))
+                full = batch;
+        }
+        if (full != null)
+            write(full);
+        return future;
+    }
+
+    /**
+     * @return whether the batch was still open, i.e. whether the caller must write it
+     */
+    private synchronized boolean close(Batch batch) {
+        if (batch.closed)
+            return false;
+        batch.closed = true;
+        if (current == batch)
+            current = null;
+        return true;
+    }
+
+    private void write(Batch batch) {
+        batchSize.observe(batch.items.size());
+        CompletionStage<List<O>> outputs;
+        try {
+            outputs = this.batch.apply(batch.items);
+        } catch (RuntimeException e) {
+            outputs = CompletableFuture.failedFuture(e);
+        }
+        outputs.whenComplete((results, e) -> {
+            if (e == null) {
+                for (int i = 0; i < results.size(); i++)
+                    batch.futures.get(i).complete(results.get(i));
+                return;
+            }
+            var cause = e instanceof CompletionException ? e.getCause() : e;
+            if (batch.items.size() == 1 || cause instanceof DatabaseOverloadedException) {
+                batch.futures.forEach(future -> future.completeExceptionally(cause));
+                return;
+            }
+            fallbacks.inc();
+            for (int i = 0; i < batch.items.size(); i++) {
+                var future = batch.futures.get(i);
+                single.apply(batch.items.get(i)).whenComplete((result, ex) -> {
+                    if (ex == null)
+                        future.complete(result);
+                    else
+                        future.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+                });
+            }
+        });
+    }
+
+    private final class Batch {
+        final List<I> items = new ArrayList<>();
+        final List<CompletableFuture<O>> futures = new ArrayList<>();
+        boolean closed;
+    }
+
+}
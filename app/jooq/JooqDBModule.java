@@ -5,8 +5,6 @@ import com.google.inject.Provides;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigException;
 import org.jooq.DSLContext;
-import org.jooq.SQLDialect;
-import org.jooq.impl.DSL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import play.Environment;
@@ -17,6 +15,7 @@ import play.db.NamedDatabaseImpl;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
+import javax.inject.Singleton;
 import java.util.Set;
 
 public class JooqDBModule extends AbstractModule {
@@ -66,12 +65,14 @@ public class JooqDBModule extends AbstractModule {
         return new NamedDatabaseImpl(name);
     }
 
+    /**
+     * The shared DSLContext of the default database. It always runs on the connection of the innermost
+     * transaction of the calling thread, so it can be a singleton.
+     */
     @Provides
-    private DSLContext provideDSLContext(ConnectionContext connectionContext) {
-        var conn = connectionContext.get().peek();
-        if (conn != null)
-            return DSL.using(conn, SQLDialect.POSTGRES);
-        return null;
+    @Singleton
+    private DSLContext provideDSLContext(jooq.Database database) {
+        return database.dsl();
     }
 
     /**
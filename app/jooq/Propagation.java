@@ -0,0 +1,32 @@
+package jooq;
+
+/**
+ * How a transaction started inside another transaction of the same {@link Database} (on the same thread)
+ * relates to it. Outside of any transaction, they all start a new one.
+ */
+public enum Propagation {
+
+    /**
+     * Runs the block in the outer transaction, on its connection. If the block throws anything but a
+     * {@link NoRollbackException}, the outer transaction can only roll back: it fails on commit even if the
+     * exception was caught.
+     */
+    REQUIRED,
+
+    /**
+     * Runs the block in the outer transaction, on its connection, within a savepoint. If the block throws
+     * anything but a {@link NoRollbackException}, only its own work is rolled back (to the savepoint) and the
+     * outer transaction may carry on.
+     */
+    NESTED,
+
+    /**
+     * Runs the block in a transaction of its own, on another connection from the pool, which commits or rolls
+     * back independently of the outer one. This is what the methods without a Propagation do.
+     *
+     * <p>Holding two connections at once, many concurrent requests doing this can exhaust the pool and deadlock
+     * waiting for each other's connections.
+     */
+    REQUIRES_NEW
+
+}
@@ -0,0 +1,92 @@
+package jooq;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import metrics.Metrics;
+import org.jooq.ExecuteContext;
+import org.jooq.impl.DefaultExecuteListener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Records the latency and the number of rows of every query executed through a {@link Database}'s
+ * configuration, labelled by the "shape" of the statement: its SQL with bind variables, IN lists collapsed
+ * and whitespace normalized. Quantiles (p50/p99/p999) are computed by Prometheus from the histogram buckets.
+ * The statements of {@code daos.QueryTemplate}s don't go through jOOQ's execution, and are recorded by name there.
+ *
+ * <p>The hot path is a lookup of the statement in a map, two {@link System#nanoTime()} calls and a
+ * lock-free histogram update. The number of distinct shapes is capped, beyond which statements are
+ * recorded as {@value #OTHER}.
+ */
+class QueryMetricsListener extends DefaultExecuteListener {
+
+    private static final Histogram DURATION = Histogram.build()
+            .name("jooq_query_duration_seconds")
+            .help("Duration of SQL statements, from rendering to the end of fetching (or closing the cursor)")
+            .labelNames("sql")
+            .buckets(Metrics.LATENCY_BUCKETS)
+            .register(Metrics.REGISTRY);
+
+    private static final Counter ROWS = Counter.build()
+            .name("jooq_query_rows_total")
+            .help("Rows fetched or affected by SQL statements (unknown for cursors)")
+            .labelNames("sql")
+            .register(Metrics.REGISTRY);
+
+    private static final int MAX_SHAPES = 1000;
+    private static final int MAX_SHAPE_LENGTH = 300;
+    private static final String OTHER = "other";
+    private static final String START = QueryMetricsListener.class.getName() + ".start";
+
+    private static final Pattern IN_LIST = Pattern.compile("\\(\\?(?:, \\?)+\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final ConcurrentHashMap<String, Shape> shapes = new ConcurrentHashMap<>();
+    private final Shape other = new Shape(OTHER);
+
+    @Override
+    public void start(ExecuteContext ctx) {
+        ctx.data(START, System.nanoTime());
+    }
+
+    @Override
+    public void end(ExecuteContext ctx) {
+        var start = (Long) ctx.data(START);
+        var sql = ctx.sql();
+        if (start == null || sql == null)
+            return;
+        var shape = shape(sql);
+        shape.duration.observe((System.nanoTime() - start) / 1e9);
+        int rows = ctx.result() != null ? ctx.result().size() : ctx.rows();
+        if (rows > 0)
+            shape.rows.inc(rows);
+    }
+
+    private Shape shape(String sql) {
+        var shape = shapes.get(sql);
+        if (shape != null)
+            return shape;
+        if (shapes.size() >= MAX_SHAPES)
+            return other;
+        return shapes.computeIfAbsent(sql, k -> new Shape(normalize(k)));
+    }
+
+    static String normalize(String sql) {
+        var normalized = WHITESPACE.matcher(sql).replaceAll(" ").trim();
+        normalized = IN_LIST.matcher(normalized).replaceAll("(?...)");
+        if (normalized.length() > MAX_SHAPE_LENGTH)
+            normalized = normalized.substring(0, MAX_SHAPE_LENGTH) + "...";
+        return normalized;
+    }
+
+    private static final class Shape {
+        final Histogram.Child duration;
+        final Counter.Child rows;
+
+        Shape(String label) {
+            this.duration = DURATION.labels(label);
+            this.rows = ROWS.labels(label);
+        }
+    }
+}
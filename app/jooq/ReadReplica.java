@@ -0,0 +1,102 @@
+package jooq;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.time.Duration;
+
+/**
+ * A replica that {@link Database}'s read-only transactions are routed to while it is available.
+ *
+ * <p>The replica is considered unavailable when a connection cannot be acquired from it, or when the last
+ * {@link #check()} failed, found it disconnected from the primary or lagging more than {@code maxLag} behind it. Read-only
+ * transactions then fall back to the primary until the next successful check.
+ */
+public class ReadReplica {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadReplica.class);
+
+    /**
+     * Whether the server is a replica (in recovery), whether its WAL receiver is streaming from the primary, and
+     * its replay lag in seconds. An idle primary generates no WAL, so a replica that has replayed everything it
+     * received is not lagging no matter how old its last replayed transaction is; but only as long as it is
+     * receiving, since a disconnected replica has replayed everything it received too. On a server which is not
+     * in recovery the lag is NULL (read as 0).
+     *
+     * <p>The status in {@code pg_stat_wal_receiver} is only visible to superusers and members of
+     * {@code pg_read_all_stats} (e.g. through {@code pg_monitor}), which the replica's user must therefore be.
+     */
+    private static final String STATUS_SQL =
+            "SELECT pg_is_in_recovery(), " +
+            "EXISTS (SELECT 1 FROM pg_stat_wal_receiver WHERE status = 'streaming'), " +
+            "CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) END";
+
+    private final play.db.Database database;
+    private final Duration maxLag;
+    private volatile boolean available = true;
+
+    public ReadReplica(play.db.Database database, Duration maxLag) {
+        this.database = database;
+        this.maxLag = maxLag;
+    }
+
+    public String getName() {
+        return database.getName();
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * @return a connection with autocommit off, or null if the replica is unavailable.
+     */
+    Connection getConnection() {
+        if ( !available )
+            return null;
+        try {
+            return Database.getTransactionalConnection(database);
+        } catch (Exception e) {
+            setAvailable(false, e);
+            return null;
+        }
+    }
+
+    /**
+     * Measures the replication lag. Run periodically by {@link DBApi}.
+     */
+    void check() {
+        try (var connection = database.getConnection();
+             var statement = connection.createStatement();
+             var resultSet = statement.executeQuery(STATUS_SQL)) {
+            resultSet.next();
+            boolean inRecovery = resultSet.getBoolean(1);
+            boolean streaming = resultSet.getBoolean(2);
+            double lagSeconds = resultSet.getDouble(3);
+            if (inRecovery && !streaming) {
+                // it falls further behind the primary, however up to date it looks
+                setAvailable(false, null);
+                logger.warn("Replica {} is not receiving WAL from the primary", getName());
+            } else if (lagSeconds * 1000 > maxLag.toMillis()) {
+                setAvailable(false, null);
+                logger.warn("Replica {} is lagging {}s behind", getName(), lagSeconds);
+            } else {
+                setAvailable(true, null);
+            }
+        } catch (Exception e) {
+            setAvailable(false, e);
+        }
+    }
+
+    private void setAvailable(boolean available, Exception cause) {
+        if (this.available == available)
+            return;
+        this.available = available;
+        if (available)
+            logger.info("Replica {} is available again, routing read-only transactions to it", getName());
+        else
+            logger.warn("Replica {} is unavailable, routing read-only transactions to the primary", getName(), cause);
+    }
+}
@@ -0,0 +1,89 @@
+package jooq;
+
+import io.prometheus.client.Counter;
+import metrics.Metrics;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When to run an outermost transaction again: after it failed because PostgreSQL aborted it to resolve a
+ * conflict with another transaction, i.e. a serialization failure ({@code 40001}, e.g. at isolation level
+ * SERIALIZABLE) or a deadlock ({@code 40P01}). Both are safe to retry since the transaction was rolled back as a
+ * whole, and likely to succeed since the other transaction has gone ahead.
+ *
+ * <p>The transaction is attempted at most {@code maxAttempts} times. Before each retry, the thread sleeps for a
+ * random time between {@code minBackoff} and an exponentially growing bound capped at {@code maxBackoff}
+ * ("full jitter"), so that the transactions which conflicted don't conflict again in lockstep.
+ *
+ * <p>Retries and give-ups are counted in {@code jooq_transaction_retries_total} and
+ * {@code jooq_transaction_retry_give_ups_total}, by SQLState.
+ */
+public class RetryPolicy {
+
+    private static final Counter RETRIES = Counter.build()
+            .name("jooq_transaction_retries_total")
+            .help("Transactions run again after a serialization failure or a deadlock")
+            .labelNames("database", "sqlstate")
+            .register(Metrics.REGISTRY);
+
+    private static final Counter GIVE_UPS = Counter.build()
+            .name("jooq_transaction_retry_give_ups_total")
+            .help("Transactions which failed with a serialization failure or a deadlock on their last attempt")
+            .labelNames("database", "sqlstate")
+            .register(Metrics.REGISTRY);
+
+    private final String database;
+    private final int maxAttempts;
+    private final long minBackoffNanos;
+    private final long maxBackoffNanos;
+
+    public RetryPolicy(String database, int maxAttempts, Duration minBackoff, Duration maxBackoff) {
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+        this.database = database;
+        this.maxAttempts = maxAttempts;
+        this.minBackoffNanos = minBackoff.toNanos();
+        this.maxBackoffNanos = Math.max(minBackoffNanos, maxBackoff.toNanos());
+    }
+
+    /**
+     * @param attempt the number of the attempt which just failed, starting from 1
+     * @return whether to retry, after {@link #backoff(int)}
+     */
+    boolean shouldRetry(Exception e, int attempt) {
+        if (e instanceof NoRollbackException)
+            return false;
+        var sqlState = SqlStates.find(e, SqlStates.SERIALIZATION_FAILURE, SqlStates.DEADLOCK_DETECTED);
+        if (sqlState == null)
+            return false;
+        if (attempt >= maxAttempts) {
+            GIVE_UPS.labels(database, sqlState).inc();
+            return false;
+        }
+        RETRIES.labels(database, sqlState).inc();
+        return true;
+    }
+
+    /**
+     * Sleeps before the next attempt.
+     *
+     * @param attempt the number of the attempt which just failed, starting from 1
+     * @return false if interrupted (with the interrupt flag set again), in which case there should be no retry
+     */
+    boolean backoff(int attempt) {
+        long bound = minBackoffNanos << Math.min(attempt - 1, 20);
+        bound = bound <= 0 || bound > maxBackoffNanos ? maxBackoffNanos : bound;
+        long nanos = bound <= minBackoffNanos ? minBackoffNanos
+                : ThreadLocalRandom.current().nextLong(minBackoffNanos, bound + 1);
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
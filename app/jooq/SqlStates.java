@@ -0,0 +1,35 @@
+package jooq;
+
+import java.sql.SQLException;
+
+/**
+ * The PostgreSQL SQLStates this application reacts to, and how to find them in an exception.
+ */
+public final class SqlStates {
+
+    private SqlStates() {}
+
+    public static final String UNIQUE_VIOLATION = "23505";
+    public static final String SERIALIZATION_FAILURE = "40001";
+    public static final String DEADLOCK_DETECTED = "40P01";
+
+    /**
+     * Looks through the causes, as the {@link SQLException} usually comes wrapped, e.g. in a jOOQ
+     * {@link org.jooq.exception.DataAccessException} or a {@link java.util.concurrent.CompletionException}.
+     *
+     * @return the first of the SQLStates found, or null if none
+     */
+    public static String find(Throwable throwable, String... sqlStates) {
+        for (var t = throwable; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                var sqlState = ((SQLException) t).getSQLState();
+                for (var expected : sqlStates) {
+                    if (expected.equals(sqlState))
+                        return sqlState;
+                }
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,75 @@
+package jooq;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs every task on its own virtual thread. Used in place of {@link DatabaseExecutionContext} when
+ * {@code database.virtual-threads.enabled} is set, so the number of concurrent transactions is no longer
+ * bounded by the size of a platform thread pool.
+ *
+ * <p>A task has to take one of {@code permits} before it runs, where {@code permits} is the size of the
+ * connection pool. This keeps thousands of virtual threads from stampeding Hikari: the waiting happens on
+ * a cheap, fair semaphore instead of in {@code getConnection} (where it would also eat into the connection
+ * timeout). Nested transactions run inside the task and don't take another permit.
+ *
+ * <p>Virtual threads only exist from JDK 21 on. The seed still compiles on older JDKs, hence the
+ * reflective lookup.
+ *
+ * <p>PgJDBC before 42.6 does its socket I/O inside {@code synchronized} blocks, which pin a virtual thread to
+ * its carrier thread for the whole query. JDBC concurrency would then be capped by the number of carrier threads
+ * (about the number of cores) rather than by {@code permits}, so {@link #requireUnpinnedDriver()} refuses such
+ * drivers. The seed ships with 42.2.13: upgrade the driver to use virtual threads.
+ */
+public class VirtualThreadExecutor implements Executor {
+
+    private final ExecutorService executorService;
+    private final Semaphore permits;
+
+    public VirtualThreadExecutor(int permits) {
+        this.executorService = newVirtualThreadPerTaskExecutor();
+        this.permits = new Semaphore(permits, true);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executorService.execute(() -> {
+            // Uninterruptibly, because the command usually completes a CompletableFuture and must not be dropped
+            permits.acquireUninterruptibly();
+            try {
+                command.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    /**
+     * @throws IllegalStateException if the PostgreSQL driver would pin virtual threads, i.e. is older than 42.6
+     * (the first version to guard its I/O with {@code ReentrantLock}s instead of {@code synchronized})
+     */
+    public static void requireUnpinnedDriver() {
+        var driver = new org.postgresql.Driver();
+        int major = driver.getMajorVersion();
+        int minor = driver.getMinorVersion();
+        if (major < 42 || (major == 42 && minor < 6))
+            throw new IllegalStateException("Virtual threads require PgJDBC 42.6 or later, found " + major + "." + minor
+                    + ": older versions pin virtual threads to their carrier thread during queries");
+    }
+
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Virtual threads require JDK 21 or later", e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create virtual thread executor", e);
+        }
+    }
+}
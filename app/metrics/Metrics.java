@@ -0,0 +1,26 @@
+package metrics;
+
+import io.prometheus.client.CollectorRegistry;
+
+/**
+ * Holds the registry all the application's metrics are registered to, and exposed from, by
+ * {@link controllers.MetricsController}.
+ *
+ * <p>Not the {@link CollectorRegistry#defaultRegistry}: the Prometheus client is loaded by the library
+ * class loader, which outlives the application in dev mode, so statically registered metrics would
+ * clash on every reload.
+ */
+public final class Metrics {
+
+    private Metrics() {}
+
+    public static final CollectorRegistry REGISTRY = new CollectorRegistry(true);
+
+    /**
+     * Latency buckets, in seconds, fine enough at the low end to tell p99 and p999 of fast queries apart.
+     */
+    public static final double[] LATENCY_BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+}
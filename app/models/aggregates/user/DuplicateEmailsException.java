@@ -0,0 +1,24 @@
+package models.aggregates.user;
+
+import java.util.Set;
+
+/**
+ * Thrown when a user can't be created because some of its emails are already taken. Rendered as 409 Conflict.
+ */
+public class DuplicateEmailsException extends RuntimeException {
+
+    private final Set<String> emails;
+
+    public DuplicateEmailsException(Set<String> emails) {
+        super("Emails already taken: " + emails, null, false, false);
+        this.emails = Set.copyOf(emails);
+    }
+
+    /**
+     * @return the emails which are already taken
+     */
+    public Set<String> getEmails() {
+        return emails;
+    }
+
+}
@@ -0,0 +1,138 @@
+package models.aggregates.user;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.typesafe.config.Config;
+import daos.AccountDao;
+import io.prometheus.client.Counter;
+import jooq.Database;
+import metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Bloom filter of the emails of all the accounts, to tell without a query that the emails of a new user are not
+ * taken. It has no false negatives for the emails known to this process: it is filled by a scan of the accounts on
+ * startup, and {@link UserService} adds the emails of each account it creates after the commit. Emails are never
+ * removed, so those of deleted accounts remain (harmless) false positives.
+ *
+ * <p>This only saves queries: the UNIQUE constraint on {@code account.email} still has the final say, e.g. for
+ * accounts created by another instance of the application.
+ *
+ * <p>Until the scan has completed, every email may be taken. A scan which fails (e.g. with the database down or
+ * overloaded) is retried, with a backoff of up to {@link #MAX_SCAN_RETRY_DELAY}. Checks are counted in
+ * {@code user_email_filter_checks_total}, by result.
+ */
+@Singleton
+public class EmailFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmailFilter.class);
+
+    private static final int SCAN_FETCH_SIZE = 5000;
+
+    private static final Duration FIRST_SCAN_RETRY_DELAY = Duration.ofSeconds(1);
+    private static final Duration MAX_SCAN_RETRY_DELAY = Duration.ofMinutes(1);
+
+    private static final Counter CHECKS = Counter.build()
+            .name("user_email_filter_checks_total")
+            .help("Checks of new emails against the filter, by whether they are certainly not taken (miss) or may be (maybe)")
+            .labelNames("result")
+            .register(Metrics.REGISTRY);
+
+    private static final Counter.Child MISSES = CHECKS.labels("miss");
+    private static final Counter.Child MAYBES = CHECKS.labels("maybe");
+
+    /**
+     * Null if disabled. Guava's BloomFilter is thread-safe.
+     */
+    private final BloomFilter<CharSequence> filter;
+    private final Database database;
+    private final AccountDao accountDao;
+    private volatile boolean ready;
+
+    @Inject
+    private EmailFilter(Database database, AccountDao accountDao, Config config) {
+        this.database = database;
+        this.accountDao = accountDao;
+        var filterConfig = config.getConfig("users.email-filter");
+        if ( !filterConfig.getBoolean("enabled") ) {
+            this.filter = null;
+            return;
+        }
+        this.filter = BloomFilter.create(Funnels.stringFunnel(UTF_8), filterConfig.getLong("expectedInsertions"),
+                filterConfig.getDouble("falsePositiveProbability"));
+        scan(FIRST_SCAN_RETRY_DELAY);
+    }
+
+    /**
+     * Emails put by a failed scan stay in the filter, which does no harm.
+     *
+     * @param retryDelay before scanning again should this scan fail
+     */
+    private void scan(Duration retryDelay) {
+        CompletionStage<Void> scan;
+        try {
+            scan = database.transactionReadOnlyAsync(ctx -> {
+                accountDao.forEachEmail(SCAN_FETCH_SIZE, filter::put);
+            });
+        } catch (RuntimeException e) {
+            scan = CompletableFuture.failedFuture(e);
+        }
+        scan.whenComplete((ignored, e) -> {
+            if (e != null) {
+                logger.warn("Could not load the emails, retrying in {}", retryDelay, e);
+                var nextDelay = retryDelay.multipliedBy(2);
+                CompletableFuture.delayedExecutor(retryDelay.toMillis(), TimeUnit.MILLISECONDS).execute(() ->
+                        scan(nextDelay.compareTo(MAX_SCAN_RETRY_DELAY) < 0 ? nextDelay : MAX_SCAN_RETRY_DELAY));
+                return;
+            }
+            ready = true;
+            logger.info("Email filter loaded, expected false positive probability {}", filter.expectedFpp());
+        });
+    }
+
+    /**
+     * @return false if {@code users.email-filter.enabled} is false, in which case emails are not checked before
+     * creating a user
+     */
+    public boolean isEnabled() {
+        return filter != null;
+    }
+
+    /**
+     * @return false if none of the emails is taken for sure, true if some may be
+     */
+    public boolean mightContainAny(Collection<String> emails) {
+        if ( !ready ) {
+            MAYBES.inc();
+            return true;
+        }
+        for (var email : emails) {
+            if (filter.mightContain(email)) {
+                MAYBES.inc();
+                return true;
+            }
+        }
+        MISSES.inc();
+        return false;
+    }
+
+    /**
+     * To be called once the account with this email is committed.
+     */
+    public void add(String email) {
+        if (filter != null)
+            filter.put(email);
+    }
+
+}
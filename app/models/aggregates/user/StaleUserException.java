@@ -0,0 +1,22 @@
+package models.aggregates.user;
+
+import java.util.UUID;
+
+/**
+ * Thrown by a domain action of {@link User} when the user was changed (or deleted) by another transaction
+ * since it was loaded, so the action was not applied. Rendered as 409 Conflict.
+ */
+public class StaleUserException extends RuntimeException {
+
+    private final UUID userId;
+
+    public StaleUserException(UUID userId, Throwable cause) {
+        super("User " + userId + " was changed concurrently", cause);
+        this.userId = userId;
+    }
+
+    public UUID getUserId() {
+        return userId;
+    }
+
+}
@@ -8,6 +8,7 @@ import models.jooq.generated.tables.records.AccountRecord;
 import models.jooq.generated.tables.records.UserRecord;
 import org.jooq.DSLContext;
 import org.jooq.Result;
+import org.jooq.exception.DataChangedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scala.Tuple2;
@@ -39,20 +40,35 @@ public class User {
      */
     @OneToMany(fetch = EAGER)
     private final List<AccountRecord> accountRecords;
-    
-    private final boolean lockForUpdate;
 
     private final UserDao userDao;
     private final AccountDao accountDao;
 
-    User(UserRecord userRecord, List<AccountRecord> accountRecords, boolean lockForUpdate, DSLContext ctx) {
+    User(UserRecord userRecord, List<AccountRecord> accountRecords, DSLContext ctx) {
         this.userRecord = userRecord;
         this.accountRecords = accountRecords;
-        this.lockForUpdate = lockForUpdate;
         this.userDao = new UserDao(ctx);
         this.accountDao = new AccountDao(ctx);
     }
 
+    /**
+     * Rebuilds a read-only aggregate from a snapshot (see {@link #toPojo()}), e.g. one served by {@link UserCache}.
+     * It is not attached to any transaction, so only actions which don't change it can be performed on it.
+     */
+    static User fromSnapshot(Tuple2<UserPojo, List<AccountPojo>> snapshot) {
+        var userRecord = new UserRecord();
+        userRecord.from(snapshot._1());
+        var accountRecords = snapshot._2()
+                .stream()
+                .map(accountPojo -> {
+                    var accountRecord = new AccountRecord();
+                    accountRecord.from(accountPojo);
+                    return accountRecord;
+                })
+                .collect(toList());
+        return new User(userRecord, accountRecords, null);
+    }
+
     // ----- Some getters, which can be helpful sometimes -----
 
     public UUID id() {
@@ -63,6 +79,13 @@ public class User {
         return userRecord.getName();
     }
 
+    /**
+     * Incremented by every change of the user, see {@link #changeName}.
+     */
+    public Integer version() {
+        return userRecord.getVersion();
+    }
+
     // ----- Some domain actions -----
 
     public String shoutName() {
@@ -70,10 +93,21 @@ public class User {
         return name();
     }
 
+    /**
+     * Versioned aggregates: no lock is taken when loading the user. Instead, each action is a single
+     * {@code UPDATE ... WHERE id = ? AND version = ?} which also increments the version, so it only applies if
+     * nobody else changed the user in the meantime.
+     *
+     * @throws StaleUserException if the user was changed or deleted since it was loaded
+     */
     public boolean changeName(String name) {
-        requireLock();
+        requireTransaction();
         userRecord.setName(name);
-        return userDao.update(userRecord);
+        try {
+            return userDao.update(userRecord);
+        } catch (DataChangedException e) {
+            throw new StaleUserException(id(), e);
+        }
     }
 
     // ----- UI methods -----
@@ -94,9 +128,9 @@ public class User {
 
     // ----- private methods ------
 
-    private void requireLock() {
-        if ( !lockForUpdate)
-            throw new IllegalStateException("Lock must be acquired in order to perform this action");
+    private void requireTransaction() {
+        if (userRecord.configuration() == null)
+            throw new IllegalStateException("User must be loaded in a transaction in order to perform this action");
     }
 
 }
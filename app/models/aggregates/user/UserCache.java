@@ -0,0 +1,95 @@
+package models.aggregates.user;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.typesafe.config.Config;
+import io.prometheus.client.cache.caffeine.CacheMetricsCollector;
+import metrics.Metrics;
+import models.jooq.generated.tables.pojos.AccountPojo;
+import models.jooq.generated.tables.pojos.UserPojo;
+import scala.Tuple2;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process cache of {@link User} snapshots, as returned by {@link User#toPojo()}. Caffeine's W-TinyLFU
+ * eviction keeps the frequently read users once {@code users.cache.maximumSize} is reached.
+ *
+ * <p>The cached pojos are shared between callers and must not be mutated.
+ *
+ * <p>Entries are invalidated by {@link UserService} after the commit of a transaction that changes the user,
+ * never before, so that a rolled-back change can't evict (or worse, replace) a valid snapshot. A snapshot
+ * loaded while an invalidation happened is not cached, since it may predate the change. Snapshots must be loaded
+ * from the primary, not from a read replica which may not have the change yet. With {@code users.cache.maximumSize}
+ * = 0, nothing is cached, and loads may go to a read replica.
+ */
+@Singleton
+public class UserCache {
+
+    private static final CacheMetricsCollector CACHE_METRICS = new CacheMetricsCollector().register(Metrics.REGISTRY);
+
+    private final Cache<UUID, Tuple2<UserPojo, List<AccountPojo>>> cache;
+    private final boolean enabled;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Inject
+    private UserCache(Config config) {
+        var maximumSize = config.getLong("users.cache.maximumSize");
+        this.enabled = maximumSize > 0;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(config.getDuration("users.cache.expireAfterWrite"))
+                .recordStats()
+                .build();
+        CACHE_METRICS.addCache("users", cache);
+    }
+
+    /**
+     * @return false if {@code users.cache.maximumSize} is 0, in which case nothing is ever cached
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Tuple2<UserPojo, List<AccountPojo>> get(UUID id) {
+        return cache.getIfPresent(id);
+    }
+
+    /**
+     * @return a token to pass to {@link #put} once the snapshot has been loaded.
+     */
+    public long beforeLoad() {
+        return invalidations.get();
+    }
+
+    /**
+     * Caches the snapshot unless an invalidation happened since {@code token} was obtained.
+     */
+    public void put(UUID id, Tuple2<UserPojo, List<AccountPojo>> snapshot, long token) {
+        // Caffeine would hold the entry until its next maintenance, even with a maximum size of 0
+        if ( !enabled || invalidations.get() != token )
+            return;
+        cache.put(id, snapshot);
+        // An invalidation between the check and the put would be lost. It increments the counter before it
+        // evicts, so either it evicts the snapshot afterwards or the counter has already moved here.
+        if (invalidations.get() != token)
+            cache.asMap().remove(id, snapshot);
+    }
+
+    public void invalidate(UUID id) {
+        invalidations.incrementAndGet();
+        cache.invalidate(id);
+    }
+
+    /**
+     * @return hit, miss and eviction counts since startup.
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+}
@@ -1,83 +1,357 @@
 package models.aggregates.user;
 
+import com.typesafe.config.Config;
 import daos.AccountDao;
 import daos.UserDao;
+import io.prometheus.client.Counter;
 import jooq.Database;
+import jooq.GroupCommit;
+import jooq.SqlStates;
+import metrics.Metrics;
 import models.Service;
 import models.jooq.generated.tables.pojos.AccountPojo;
 import models.jooq.generated.tables.pojos.UserPojo;
+import models.jooq.generated.tables.records.AccountRecord;
 import org.jooq.DSLContext;
 import scala.Tuple2;
+import scala.util.Either;
+import scala.util.Left;
+import scala.util.Right;
 
 import javax.inject.Inject;
-import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * All methods run their transaction on {@link Database#executor()}, so callers never block on JDBC.
+ *
+ * <p>Reads which don't lock are served from the {@link UserCache} when possible, and otherwise share the
+ * load of the user with the concurrent reads of the same user (see {@link #loadUser}). As these loads fill the cache,
+ * they don't go to a read replica while the cache is enabled (see {@link #loadTransaction}). Every method that
+ * changes a user invalidates its cache entry after its transaction has committed, and adds the emails of the
+ * accounts it creates to the {@link EmailFilter}.
+ */
 @Service
+@Singleton
 public class UserService {
 
+    /**
+     * Of a transaction which changes a user, see {@link #retryIfStale}.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final Counter USER_LOADS = Counter.build()
+            .name("user_loads_total")
+            .help("Loads of a user from the database, by whether the caller ran the load or shared one in flight")
+            .labelNames("result")
+            .register(Metrics.REGISTRY);
+
+    private static final Counter.Child LOADS = USER_LOADS.labels("loaded");
+    private static final Counter.Child SHARED_LOADS = USER_LOADS.labels("shared");
+
     private final jooq.Database database;
     private final UserDao userDao;
     private final AccountDao accountDao;
-    private final Provider<DSLContext> ctxProvider;
+    private final UserCache userCache;
+    private final EmailFilter emailFilter;
+    private final ConcurrentHashMap<UUID, CompletableFuture<Tuple2<UserPojo, List<AccountPojo>>>> loads =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Null unless {@code users.group-commit.enabled}.
+     */
+    private final GroupCommit<Tuple2<String, Collection<String>>, Either<Set<String>, Tuple2<UserPojo, List<AccountPojo>>>> newUsers;
 
     @Inject
-    private UserService(Database database, UserDao userDao, AccountDao accountDao, Provider<DSLContext> ctxProvider) {
+    private UserService(Database database, UserDao userDao, AccountDao accountDao, UserCache userCache,
+                        EmailFilter emailFilter, Config config) {
         this.database = database;
         this.userDao = userDao;
         this.accountDao = accountDao;
-        this.ctxProvider = ctxProvider;
+        this.userCache = userCache;
+        this.emailFilter = emailFilter;
+        var groupCommit = config.getConfig("users.group-commit");
+        this.newUsers = !groupCommit.getBoolean("enabled") ? null : new GroupCommit<>("users.create",
+                groupCommit.getDuration("window"), groupCommit.getInt("maxBatchSize"),
+                this::createNewUsers, this::createNewUserAlone);
     }
 
     /**
+     * With {@code users.group-commit.enabled}, the users created concurrently are created together with
+     * {@link #createNewUsers}, committing them all at once (see {@link GroupCommit}).
+     *
      * @param name not nullable, validated by DB
      * @param emails not repeatable or nullable, validated by DB
-     * @throws RuntimeException if name is nullable or emails are duplicated
+     * @return completes exceptionally if name is nullable, or with a {@link DuplicateEmailsException} if some
+     * emails are already taken
+     */
+    public CompletionStage<Tuple2<UserPojo, List<AccountPojo>>> createNewUser(String name, Collection<String> emails) {
+        if (newUsers == null)
+            return _createNewUser(name, emails);
+        return newUsers.submit(new Tuple2<>(name, emails)).thenApply(result -> {
+            if (result.isLeft())
+                throw new DuplicateEmailsException(result.left().get());
+            return result.right().get();
+        });
+    }
+
+    private CompletionStage<Either<Set<String>, Tuple2<UserPojo, List<AccountPojo>>>> createNewUserAlone(
+            Tuple2<String, Collection<String>> user) {
+        return _createNewUser(user._1(), user._2()).thenApply(pojo -> new Right<>(pojo));
+    }
+
+    /**
+     * An email taken (possibly concurrently) makes the INSERT of its account fail with a unique violation, after
+     * which the emails taken are looked up on the primary, to fail with a {@link DuplicateEmailsException}.
      */
-    public Tuple2<UserPojo, List<AccountPojo>> createNewUser(String name, Collection<String> emails) {
-        return database.transaction(ctx -> {
+    private CompletionStage<Tuple2<UserPojo, List<AccountPojo>>> _createNewUser(String name, Collection<String> emails) {
+        return database.transactionAsync(ctx -> {
             var tuple2 = userDao.create(name, emails);
             var userRecord     = tuple2._1();
             var accountRecords = tuple2._2();
-            var user = new User(userRecord, accountRecords, true, ctxProvider.get());
+            var user = new User(userRecord, accountRecords, ctx);
+            invalidateAfterCommit(user.id());
+            addEmailsAfterCommit(accountRecords);
             return user.toPojo();
+        }).exceptionallyCompose(e -> {
+            var cause = e instanceof CompletionException ? e.getCause() : e;
+            if (SqlStates.find(cause, SqlStates.UNIQUE_VIOLATION) == null)
+                return failedFuture(cause);
+            return database.transactionAsync(ctx -> {
+                return accountDao.findTakenEmails(emails);
+            }).thenCompose(taken -> {
+                // the email taken may have been freed again since
+                return failedFuture(taken.isEmpty() ? cause : new DuplicateEmailsException(taken));
+            });
         });
     }
 
-    public Tuple2<UserPojo, List<AccountPojo>> getUser(UUID id) {
-        return database.transaction(ctx -> {
-            var user = _getUser(id, false);
-            return user.toPojo();
+    /**
+     * Creates all the users in one transaction, with a fixed number of statements (see {@link UserDao#createAll}).
+     * A user whose email is already taken is not created, but does not prevent the others from being created.
+     *
+     * @param users the name and emails of each user, validated as in {@link #createNewUser}
+     * @return for each user, in the same order, either the emails which are already taken (left) or the
+     * created user (right)
+     */
+    public CompletionStage<List<Either<Set<String>, Tuple2<UserPojo, List<AccountPojo>>>>> createNewUsers(
+            List<? extends Tuple2<String, ? extends Collection<String>>> users) {
+        return database.transactionAsync(ctx -> {
+            var results = userDao.createAll(users);
+            var pojos = new ArrayList<Either<Set<String>, Tuple2<UserPojo, List<AccountPojo>>>>(results.size());
+            for (var result : results) {
+                if (result.isLeft()) {
+                    pojos.add(new Left<>(result.left().get()));
+                } else {
+                    var tuple2 = result.right().get();
+                    var user = new User(tuple2._1(), tuple2._2(), ctx);
+                    invalidateAfterCommit(user.id());
+                    addEmailsAfterCommit(tuple2._2());
+                    pojos.add(new Right<>(user.toPojo()));
+                }
+            }
+            return pojos;
         });
     }
 
-    public String shoutNameOfUser(UUID id) {
-        return database.transaction(ctx -> {
-            var user = _getUser(id, false);
-            return user.shoutName();
+    /**
+     * @return completes with null if there is no such user
+     */
+    public CompletionStage<Tuple2<UserPojo, List<AccountPojo>>> getUser(UUID id) {
+        var cached = userCache.get(id);
+        if (cached != null)
+            return completedFuture(cached);
+        return loadUser(id);
+    }
+
+    /**
+     * Single flight: concurrent loads of the same user share one transaction, whose result they all get. Its
+     * entry is dropped once the load completes, or as soon as the user is changed, so that callers coming after a
+     * change never get a load which may predate it. Loads and shared loads are counted in {@code user_loads_total}.
+     *
+     * @return completes with null if there is no such user
+     */
+    private CompletionStage<Tuple2<UserPojo, List<AccountPojo>>> loadUser(UUID id) {
+        var load = new CompletableFuture<Tuple2<UserPojo, List<AccountPojo>>>();
+        var inFlight = loads.putIfAbsent(id, load);
+        if (inFlight != null) {
+            SHARED_LOADS.inc();
+            return inFlight.minimalCompletionStage();
+        }
+        LOADS.inc();
+        var token = userCache.beforeLoad();
+        CompletionStage<Tuple2<UserPojo, List<AccountPojo>>> transaction;
+        try {
+            transaction = loadTransaction(ctx -> {
+                var user = _getUser(id, ctx);
+                return user == null ? null : cache(user, token);
+            });
+        } catch (RuntimeException e) {
+            transaction = failedFuture(e);
+        }
+        transaction.whenComplete((snapshot, e) -> {
+            loads.remove(id, load);
+            if (e == null)
+                load.complete(snapshot);
+            else
+                load.completeExceptionally(e);
         });
+        return load.minimalCompletionStage();
+    }
+
+    /**
+     * Loads all the users which are not cached with a single query.
+     *
+     * @return the users found, by id. Ids without a user are left out.
+     */
+    public CompletionStage<Map<UUID, Tuple2<UserPojo, List<AccountPojo>>>> getUsers(Collection<UUID> ids) {
+        var found = new HashMap<UUID, Tuple2<UserPojo, List<AccountPojo>>>();
+        var missing = new ArrayList<UUID>();
+        for (var id : new HashSet<>(ids)) {
+            var cached = userCache.get(id);
+            if (cached != null)
+                found.put(id, cached);
+            else
+                missing.add(id);
+        }
+        if (missing.isEmpty())
+            return completedFuture(found);
+        var token = userCache.beforeLoad();
+        return loadTransaction(ctx -> {
+            var loaded = userDao.findAllByIdWithAccounts(missing);
+            for (var tuple2 : loaded.values()) {
+                var user = new User(tuple2._1(), tuple2._2(), ctx);
+                found.put(user.id(), cache(user, token));
+            }
+            return found;
+        });
+    }
+
+    /**
+     * @return completes with null if there is no such user
+     */
+    public CompletionStage<String> shoutNameOfUser(UUID id) {
+        return getUser(id).thenApply(snapshot -> snapshot == null ? null : User.fromSnapshot(snapshot).shoutName());
     }
 
-    public Tuple2<UserPojo, List<AccountPojo>> changeName(UUID id, String newName) {
-        return database.transaction(ctx -> {
-            var user = _getUser(id, true);
+    /**
+     * The user is loaded without a lock and updated only if its version did not change in the meantime (see
+     * {@link User#changeName}). If it did, the whole transaction is retried with the latest user, up to
+     * {@value #MAX_ATTEMPTS} times in all.
+     *
+     * @return completes with null if there is no such user, or exceptionally with a {@link StaleUserException}
+     * if the user kept being changed concurrently
+     */
+    public CompletionStage<Tuple2<UserPojo, List<AccountPojo>>> changeName(UUID id, String newName) {
+        return retryIfStale(MAX_ATTEMPTS, () -> database.transactionAsync(ctx -> {
+            var user = _getUser(id, ctx);
+            if (user == null)
+                return null;
             user.changeName(newName);
+            invalidateAfterCommit(id);
             return user.toPojo();
-        });
+        }));
     }
 
-    public boolean deleteUser(UUID userId) {
-        return database.transaction(ctx -> {
+    public CompletionStage<Boolean> deleteUser(UUID userId) {
+        return database.transactionAsync(ctx -> {
+            invalidateAfterCommit(userId);
             return userDao.deleteById(userId);
         });
     }
 
-    private User _getUser(UUID id, boolean lockForUpdate) {
-        var userRecord = userDao.findById(id, lockForUpdate);
-        var accountRecords = accountDao.findAllByUserId(id);
-        return new User(userRecord, accountRecords, lockForUpdate, ctxProvider.get());
+    /**
+     * Deletes all the users, and their accounts, in one transaction with a fixed number of statements
+     * (see {@link UserDao#deleteAllById}).
+     *
+     * @return for each distinct id, in the order given, whether the user was deleted (false if there was no such user)
+     */
+    public CompletionStage<Map<UUID, Boolean>> deleteUsers(Collection<UUID> userIds) {
+        return database.transactionAsync(ctx -> {
+            var deleted = userDao.deleteAllById(userIds);
+            var results = new LinkedHashMap<UUID, Boolean>();
+            for (var userId : userIds)
+                results.put(userId, deleted.contains(userId));
+            for (var userId : deleted)
+                invalidateAfterCommit(userId);
+            return results;
+        });
+    }
+
+    /**
+     * Loads the aggregate in a single round trip.
+     *
+     * @return null if there is no such user
+     */
+    private User _getUser(UUID id, DSLContext ctx) {
+        var tuple2 = userDao.findByIdWithAccounts(id, false);
+        if (tuple2 == null)
+            return null;
+        return new User(tuple2._1(), tuple2._2(), ctx);
+    }
+
+    /**
+     * Runs the transaction again, from the start, as long as it fails with a {@link StaleUserException} and
+     * fewer than {@code attempts} were made.
+     */
+    private static <T> CompletionStage<T> retryIfStale(int attempts, Supplier<CompletionStage<T>> transaction) {
+        return transaction.get().exceptionallyCompose(e -> {
+            var cause = e instanceof CompletionException ? e.getCause() : e;
+            if (attempts > 1 && cause instanceof StaleUserException)
+                return retryIfStale(attempts - 1, transaction);
+            return failedFuture(cause);
+        });
+    }
+
+    /**
+     * The transaction of a load of users which may be cached: on the primary (see {@link #cache}) if there is a read
+     * replica and a cache, else a read-only transaction, served by the read replica if there is one.
+     */
+    private <T> CompletionStage<T> loadTransaction(Function<DSLContext, T> block) {
+        if (userCache.isEnabled() && database.getReadReplica() != null)
+            return database.transactionAsync(block);
+        return database.transactionReadOnlyAsync(block);
+    }
+
+    /**
+     * Only for users loaded from the primary (or with the cache disabled, when nothing is cached), see
+     * {@link #loadTransaction}. A read-only transaction may run on a lagging read replica, where a read right after a committed change can still see the user as it was, and would
+     * cache that until {@code expireAfterWrite} despite the invalidation.
+     */
+    private Tuple2<UserPojo, List<AccountPojo>> cache(User user, long token) {
+        var snapshot = user.toPojo();
+        userCache.put(user.id(), snapshot, token);
+        return snapshot;
+    }
+
+    private void invalidateAfterCommit(UUID id) {
+        database.afterCommit(() -> {
+            loads.remove(id);
+            userCache.invalidate(id);
+        });
+    }
+
+    private void addEmailsAfterCommit(List<AccountRecord> accountRecords) {
+        var emails = accountRecords.stream().map(AccountRecord::getEmail).collect(toList());
+        database.afterCommit(() -> emails.forEach(emailFilter::add));
     }
 
 }
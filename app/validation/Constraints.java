@@ -9,6 +9,11 @@ public final class Constraints {
 
     public interface Phase2 {}
 
+    /**
+     * Checks against the database (see {@link ValidateWithDSLContext}), bound separately inside a transaction.
+     */
+    public interface DatabasePhase {}
+
     @GroupSequence({ Default.class, Phase2.class })
     public interface TwoPhaseValidation {}
 
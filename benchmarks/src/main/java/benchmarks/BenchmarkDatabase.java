@@ -0,0 +1,101 @@
+package benchmarks;
+
+import com.typesafe.config.ConfigFactory;
+import daos.UserDao;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import jooq.ConnectionContext;
+import jooq.DBApi;
+import jooq.Database;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import play.Environment;
+import play.api.Configuration;
+import play.api.db.PooledDatabase;
+import scala.Tuple2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An embedded PostgreSQL with the seed's schema, wrapped in a {@link jooq.Database} the same way {@link jooq.DBApi}
+ * does it, and filled with {@link #users} users of {@link #accountsPerUser} accounts each.
+ *
+ * <p>Transactions run on the calling thread: the "Async" executor is not what is measured here.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDatabase {
+
+    private static final int INSERT_BATCH_SIZE = 500;
+
+    @Param("1000")
+    public int users;
+
+    @Param("3")
+    public int accountsPerUser;
+
+    public Database database;
+
+    private EmbeddedPostgres postgres;
+    private play.api.db.Database scalaDb;
+
+    @Setup
+    public void setUp() throws Exception {
+        postgres = EmbeddedPostgres.start();
+        var config = ConfigFactory
+                .parseMap(Map.of(
+                        "driver", "org.postgresql.Driver",
+                        "url", postgres.getJdbcUrl("postgres", "postgres"),
+                        "username", "postgres",
+                        "password", "",
+                        "hikaricp.dataSource.stringtype", "unspecified"))
+                .withFallback(ConfigFactory.defaultReference().getConfig("play.db.prototype"));
+        scalaDb = new PooledDatabase("default", new Configuration(config));
+        // the jooq.settings of application.conf, from the conf/ of the application on the classpath
+        var settings = DBApi.loadSettings(Environment.simple(), "jooq-settings.xml");
+        database = new Database(scalaDb, new ConnectionContext(), Runnable::run, settings);
+
+        try (var connection = database.getConnection(); var statement = connection.createStatement()) {
+            statement.execute(script("/1.sql"));
+            statement.execute(script("/2.sql"));
+            statement.execute(script("/3.sql"));
+        }
+        seed();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        scalaDb.shutdown();
+        postgres.close();
+    }
+
+    private void seed() {
+        var userDao = new UserDao(database.dsl());
+        for (int from = 0; from < users; from += INSERT_BATCH_SIZE) {
+            var batch = new ArrayList<Tuple2<String, List<String>>>();
+            for (int i = from; i < Math.min(users, from + INSERT_BATCH_SIZE); i++) {
+                var emails = new ArrayList<String>(accountsPerUser);
+                for (int j = 0; j < accountsPerUser; j++)
+                    emails.add("user" + i + "-" + j + "@example.com");
+                batch.add(new Tuple2<>("user" + i, emails));
+            }
+            database.transaction(ctx -> {
+                userDao.createAll(batch);
+            });
+        }
+    }
+
+    private static String script(String resource) throws IOException {
+        try (InputStream in = BenchmarkDatabase.class.getResourceAsStream(resource)) {
+            if (in == null)
+                throw new IllegalStateException("Script not on classpath: " + resource);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package benchmarks;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Provides;
+import daos.AbstractDao;
+import daos.QueryTemplate;
+import daos.UserDao;
+import jooq.Database;
+import models.jooq.generated.tables.pojos.AccountPojo;
+import models.jooq.generated.tables.pojos.UserPojo;
+import org.jooq.DSLContext;
+import org.jooq.Param;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static models.jooq.generated.Tables.ACCOUNT;
+import static models.jooq.generated.Tables.USER;
+
+/**
+ * The DAO layer: how a DAO gets hold of its {@link DSLContext}, running a query through a {@link QueryTemplate}
+ * against having jOOQ render it, and mapping the rows of {@link UserDao#findAllWithAccounts()} into its TreeMap.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DaoBenchmark {
+
+    private static final Param<UUID> ID = DSL.param("id", USER.ID);
+
+    /**
+     * The same query as {@code UserDao}'s {@code findByIdWithAccounts}.
+     */
+    private static final QueryTemplate FIND_BY_ID_WITH_ACCOUNTS = new QueryTemplate("benchmark.findByIdWithAccounts",
+            DSL.select().from(USER).leftJoin(ACCOUNT).on(USER.ID.eq(ACCOUNT.USER_ID)).where(USER.ID.eq(ID)).orderBy(ACCOUNT.ID),
+            ID);
+
+    /**
+     * A DAO that only exposes {@link AbstractDao#ctx()}, injected like the DAOs of the application.
+     */
+    public static class CtxDao extends AbstractDao {
+
+        @Inject
+        public CtxDao(Provider<DSLContext> ctxProvider) {
+            super(ctxProvider);
+        }
+
+        public DSLContext exposedCtx() {
+            return ctx();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Injected {
+
+        public UserDao userDao;
+        public CtxDao ctxDao;
+
+        @Setup
+        public void setUp(BenchmarkDatabase db) {
+            // same binding as jooq.JooqDBModule#provideDSLContext
+            var injector = Guice.createInjector(new AbstractModule() {
+                @Provides
+                @Singleton
+                DSLContext provideDSLContext() {
+                    return db.database.dsl();
+                }
+            });
+            userDao = injector.getInstance(UserDao.class);
+            ctxDao = injector.getInstance(CtxDao.class);
+        }
+    }
+
+    /**
+     * A connection held for the whole run, so that the baseline measures building the DSLContext only.
+     */
+    @State(Scope.Benchmark)
+    public static class Held {
+
+        public Connection connection;
+
+        @Setup
+        public void setUp(BenchmarkDatabase db) throws SQLException {
+            connection = db.database.getConnection();
+        }
+
+        @TearDown
+        public void tearDown() throws SQLException {
+            connection.close();
+        }
+    }
+
+    /**
+     * What an injected DAO does on every query: {@link AbstractDao#ctx()}, which returns the shared DSLContext
+     * of the database resolved once from Guice when the DAO was constructed.
+     */
+    @Benchmark
+    public DSLContext ctxOfInjectedDao(Injected injected) {
+        return injected.ctxDao.exposedCtx();
+    }
+
+    /**
+     * Baseline: a new DSLContext (and DefaultConfiguration) for each call, on a connection that is already open.
+     */
+    @Benchmark
+    public DSLContext ctxPerCall(Held held) {
+        return DSL.using(held.connection, SQLDialect.POSTGRES);
+    }
+
+    @Benchmark
+    public TreeMap<UserPojo, List<AccountPojo>> findAllWithAccounts(BenchmarkDatabase db, Injected injected) {
+        return db.database.transaction(ctx -> {
+            return injected.userDao.findAllWithAccounts();
+        });
+    }
+
+    /**
+     * A connection bound to the benchmark thread for the whole run, as in a transaction, so that the queries run
+     * on the shared DSLContext of the database without the cost of transactions.
+     */
+    @State(Scope.Thread)
+    public static class Bound {
+
+        public Connection connection;
+        public UUID id;
+
+        @Setup
+        public void setUp(BenchmarkDatabase db) throws SQLException {
+            connection = db.database.getConnection();
+            db.database.connectionContext.bind(connection);
+            id = db.database.dsl().select(USER.ID).from(USER).limit(1).fetchOne(USER.ID);
+        }
+
+        @TearDown
+        public void tearDown(BenchmarkDatabase db) throws SQLException {
+            db.database.connectionContext.unbind();
+            connection.close();
+        }
+    }
+
+    /**
+     * Rendered once, then only prepared and bound on each call.
+     */
+    @Benchmark
+    public Result<Record> findByIdWithAccountsThroughTemplate(BenchmarkDatabase db, Bound bound) {
+        return FIND_BY_ID_WITH_ACCOUNTS.fetch(db.database.dsl(), bound.id);
+    }
+
+    /**
+     * Baseline: the query built and rendered by jOOQ on each call.
+     */
+    @Benchmark
+    public Result<Record> findByIdWithAccountsRendered(BenchmarkDatabase db, Bound bound) {
+        return db.database.dsl()
+                .select().from(USER).leftJoin(ACCOUNT).on(USER.ID.eq(ACCOUNT.USER_ID))
+                .where(USER.ID.eq(bound.id)).orderBy(ACCOUNT.ID)
+                .fetch();
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import org.jooq.Record1;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.select;
+
+/**
+ * Overhead of {@link jooq.Database#transaction}: acquiring the connection from Hikari, binding it in the
+ * {@code ConnectionContext}, committing, and releasing everything again.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DatabaseBenchmark {
+
+    /**
+     * No statement is executed, so PgJDBC does not even send the BEGIN/COMMIT: this is the pure overhead
+     * of the Java side.
+     */
+    @Benchmark
+    public Object emptyTransaction(BenchmarkDatabase db) {
+        return db.database.transaction(ctx -> {
+            return ctx;
+        });
+    }
+
+    @Benchmark
+    public Record1<Integer> selectOneTransaction(BenchmarkDatabase db) {
+        return db.database.transaction(ctx -> {
+            return ctx.select(inline(1)).fetchOne();
+        });
+    }
+
+    @Benchmark
+    public Record1<Integer> selectOneNestedTransaction(BenchmarkDatabase db) {
+        return db.database.transaction(outer -> {
+            return db.database.transaction(inner -> {
+                return inner.select(inline(1)).fetchOne();
+            });
+        });
+    }
+}
@@ -0,0 +1,76 @@
+package controllers;
+
+import benchmarks.BenchmarkDatabase;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import daos.UserDao;
+import models.jooq.generated.tables.pojos.AccountPojo;
+import models.jooq.generated.tables.pojos.UserPojo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import play.libs.Json;
+import scala.Tuple2;
+
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The JSON writing of {@link UserController} over the users loaded once from the database, one user at a time
+ * and the full rendering of GET /persons, against the reflective tree building ({@code Json.toJson}) it replaced.
+ * In package {@code controllers} to reach the package-private methods.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UserJsonBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Users {
+
+        public TreeMap<UserPojo, List<AccountPojo>> userToAccounts;
+
+        @Setup
+        public void setUp(BenchmarkDatabase db) {
+            var userDao = new UserDao(db.database.dsl());
+            userToAccounts = db.database.transaction(ctx -> {
+                return userDao.findAllWithAccounts();
+            });
+        }
+    }
+
+    @Benchmark
+    public void userWithAccountsToJson(Users users, Blackhole blackhole) {
+        for (var entry : users.userToAccounts.entrySet())
+            blackhole.consume(UserController.userWithAccountsToJson(new Tuple2<>(entry.getKey(), entry.getValue())));
+    }
+
+    @Benchmark
+    public byte[] listToBytes(Users users) {
+        return UserController.toJsonBytes(generator -> {
+            UserController.writeUsersWithAccounts(generator, users.userToAccounts);
+        });
+    }
+
+    @Benchmark
+    public byte[] listToBytesThroughTree(Users users) throws JsonProcessingException {
+        var array = Json.newArray();
+        for (var entry : users.userToAccounts.entrySet()) {
+            var json = (ObjectNode) Json.toJson(entry.getKey());
+            json.set("accounts", Json.toJson(entry.getValue()));
+            array.add(json);
+        }
+        return Json.mapper().writeValueAsBytes(array);
+    }
+}
@@ -0,0 +1,96 @@
+package controllers;
+
+import benchmarks.BenchmarkDatabase;
+import daos.UserDao;
+import models.jooq.generated.tables.pojos.AccountPojo;
+import models.jooq.generated.tables.pojos.UserPojo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toList;
+import static models.jooq.generated.Tables.USER;
+
+/**
+ * The response bodies of GET /persons and GET /persons/:id, from the query to the bytes: rows mapped to POJOs
+ * and written by the generated JSON writers, against the JSON built by PostgreSQL and passed through
+ * ({@code users.json.from-database}). Run with {@code -prof gc} to compare the allocations too.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UserJsonSourceBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Dao {
+
+        public UserDao userDao;
+        public List<UUID> ids;
+
+        @Setup
+        public void setUp(BenchmarkDatabase db) {
+            userDao = new UserDao(db.database.dsl());
+            ids = db.database.transaction(ctx -> {
+                return new ArrayList<>(ctx.select(USER.ID).from(USER).fetch(USER.ID));
+            });
+        }
+
+        UUID randomId() {
+            return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+        }
+    }
+
+    @Benchmark
+    public byte[] listMappedInJava(BenchmarkDatabase db, Dao dao) {
+        var userToAccounts = db.database.transactionReadOnly(ctx -> {
+            return dao.userDao.findAllWithAccounts();
+        });
+        return UserController.toJsonBytes(generator -> {
+            UserController.writeUsersWithAccounts(generator, userToAccounts);
+        });
+    }
+
+    @Benchmark
+    public byte[] listFromDatabase(BenchmarkDatabase db, Dao dao) {
+        return db.database.transactionReadOnly(ctx -> {
+            return dao.userDao.findAllWithAccountsAsJson();
+        });
+    }
+
+    @Benchmark
+    public byte[] userMappedInJava(BenchmarkDatabase db, Dao dao) {
+        var id = dao.randomId();
+        var userWithAccounts = db.database.transactionReadOnly(ctx -> {
+            return dao.userDao.findByIdWithAccounts(id, false);
+        });
+        // as UserService#getUser does
+        var userPojo = userWithAccounts._1().into(UserPojo.class);
+        var accountPojos = userWithAccounts._2().stream().map(a -> a.into(AccountPojo.class)).collect(toList());
+        return UserController.toJsonBytes(generator -> {
+            UserController.writeUserWithAccounts(generator, userPojo, accountPojos);
+        });
+    }
+
+    @Benchmark
+    public byte[] userFromDatabase(BenchmarkDatabase db, Dao dao) {
+        var id = dao.randomId();
+        return db.database.transactionReadOnly(ctx -> {
+            return dao.userDao.findByIdWithAccountsAsJson(id);
+        });
+    }
+}
@@ -0,0 +1,5 @@
+-- PostgreSQL 12.3
+
+-- Foreign keys are not indexed automatically. Needed by every lookup of accounts by user
+-- (e.g. the keyset pagination of GET /persons).
+CREATE INDEX IF NOT EXISTS account_user_id_idx ON account(user_id);
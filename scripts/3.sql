@@ -0,0 +1,5 @@
+-- PostgreSQL 12.3
+
+-- Version of the user aggregate, incremented by every UPDATE of the row (jOOQ's optimistic locking, see
+-- recordVersionFields in jooq-codegen.xml). Existing rows start at 1 like new ones.
+ALTER TABLE "user" ADD COLUMN IF NOT EXISTS version INTEGER NOT NULL DEFAULT 1;
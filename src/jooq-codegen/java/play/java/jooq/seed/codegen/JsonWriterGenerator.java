@@ -0,0 +1,120 @@
+package play.java.jooq.seed.codegen;
+
+import org.jooq.codegen.GeneratorStrategy.Mode;
+import org.jooq.codegen.JavaGenerator;
+import org.jooq.codegen.JavaWriter;
+import org.jooq.meta.ColumnDefinition;
+import org.jooq.meta.TableDefinition;
+import org.jooq.tools.JooqLogger;
+
+import java.io.File;
+import java.util.Set;
+
+import static org.jooq.codegen.GeneratorStrategy.Mode.POJO;
+import static org.jooq.codegen.GeneratorStrategy.Mode.RECORD;
+
+/**
+ * Generates, next to each POJO, a {@code <Table>JsonWriter} in the package {@code <tables package>.json} which
+ * writes the POJO (or the record) straight to a Jackson {@code JsonGenerator}: no reflection and no intermediate
+ * tree. The JSON is the same as Jackson's bean serialization of the POJO (one field per column, named after the
+ * POJO property, in column order).
+ *
+ * <p>Strings, UUIDs, numbers and booleans are written directly. Other types (e.g. dates and enums) are handed
+ * to the generator's codec, so the generator must come from an {@code ObjectMapper} (e.g. Play's
+ * {@code Json.mapper()}) for them to be formatted as configured there.
+ */
+public class JsonWriterGenerator extends JavaGenerator {
+
+    private static final JooqLogger log = JooqLogger.getLogger(JsonWriterGenerator.class);
+
+    private static final Set<String> NUMBER_TYPES = Set.of(
+            "java.lang.Integer", "java.lang.Long", "java.lang.Double", "java.lang.Float", "java.math.BigDecimal");
+
+    @Override
+    protected void generatePojo(TableDefinition table) {
+        super.generatePojo(table);
+        generateJsonWriter(table);
+    }
+
+    private void generateJsonWriter(TableDefinition table) {
+        var strategy = getStrategy();
+        var pojoPackage = strategy.getJavaPackageName(table, POJO);
+        var packageName = pojoPackage.substring(0, pojoPackage.lastIndexOf('.')) + ".json";
+        var className = strategy.getJavaClassName(table) + "JsonWriter";
+        var pojoClass = strategy.getFullJavaClassName(table, POJO);
+        var recordClass = strategy.getFullJavaClassName(table, RECORD);
+        var directory = new File(strategy.getFile(table, POJO).getParentFile().getParentFile(), "json");
+
+        log.info("Generating JSON writer", className);
+        JavaWriter out = newJavaWriter(new File(directory, className + ".java"));
+        out.println("/*");
+        out.println(" * This file is generated by jOOQ (" + getClass().getSimpleName() + ").");
+        out.println(" */");
+        out.println("package " + packageName + ";");
+        out.println();
+        out.println();
+        out.println("/**");
+        out.println(" * Writes {@link " + pojoClass + "} and {@link " + recordClass + "} as JSON objects, without reflection.");
+        out.println(" */");
+        out.println("public final class " + className + " {");
+        out.println();
+        out.println("private " + className + "() {}");
+        generateMethods(out, table, pojoClass, "pojo", POJO);
+        generateMethods(out, table, recordClass, "record", RECORD);
+        out.println("}");
+        closeJavaWriter(out);
+    }
+
+    private void generateMethods(JavaWriter out, TableDefinition table, String type, String name,
+                                 Mode mode) {
+        var generator = "com.fasterxml.jackson.core.JsonGenerator";
+        out.println();
+        out.println("/**");
+        out.println(" * Writes the " + name + " as a JSON object, or null.");
+        out.println(" */");
+        out.println("public static void write(" + generator + " generator, " + type + " " + name + ") throws java.io.IOException {");
+        out.println("if (" + name + " == null) {");
+        out.println("generator.writeNull();");
+        out.println("return;");
+        out.println("}");
+        out.println("generator.writeStartObject();");
+        out.println("writeFields(generator, " + name + ");");
+        out.println("generator.writeEndObject();");
+        out.println("}");
+        out.println();
+        out.println("/**");
+        out.println(" * Writes the " + name + "s as a JSON array.");
+        out.println(" */");
+        out.println("public static void writeAll(" + generator + " generator, java.lang.Iterable<? extends " + type + "> " + name + "s) throws java.io.IOException {");
+        out.println("generator.writeStartArray();");
+        out.println("for (" + type + " " + name + " : " + name + "s) write(generator, " + name + ");");
+        out.println("generator.writeEndArray();");
+        out.println("}");
+        out.println();
+        out.println("/**");
+        out.println(" * Writes the fields of the " + name + " into the current JSON object, e.g. to add more fields after them.");
+        out.println(" */");
+        out.println("public static void writeFields(" + generator + " generator, " + type + " " + name + ") throws java.io.IOException {");
+        for (ColumnDefinition column : table.getColumns()) {
+            var field = "\"" + getStrategy().getJavaMemberName(column, POJO) + "\"";
+            var value = name + "." + getStrategy().getJavaGetterName(column, mode) + "()";
+            out.println("if (" + value + " == null) generator.writeNullField(" + field + "); else "
+                    + writeField(getJavaType(column.getType()), field, value) + ";");
+        }
+        out.println("}");
+    }
+
+    private static String writeField(String javaType, String field, String value) {
+        if ("java.lang.String".equals(javaType))
+            return "generator.writeStringField(" + field + ", " + value + ")";
+        if ("java.util.UUID".equals(javaType))
+            return "generator.writeStringField(" + field + ", " + value + ".toString())";
+        if ("java.lang.Boolean".equals(javaType))
+            return "generator.writeBooleanField(" + field + ", " + value + ")";
+        if ("java.lang.Short".equals(javaType) || "java.lang.Byte".equals(javaType))
+            return "generator.writeNumberField(" + field + ", " + value + ".intValue())";
+        if (NUMBER_TYPES.contains(javaType))
+            return "generator.writeNumberField(" + field + ", " + value + ")";
+        return "generator.writeObjectField(" + field + ", " + value + ")";
+    }
+}